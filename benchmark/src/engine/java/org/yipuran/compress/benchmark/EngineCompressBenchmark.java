@@ -0,0 +1,60 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yipuran.compress.ParallelGzipOutputStream;
+import org.yipuran.compress.benchmark.EngineState.Context;
+import org.yipuran.compress.benchmark.EngineState.Threads;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Archive;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Bytes;
+
+/**
+ * 新しいエンジンの圧縮のベンチマーク.
+ * <PRE>
+ * TarContext のコピーバッファサイズ、スレッド数指定の先読み・並列圧縮で計測する。
+ * CompressBenchmark と同じコーパス、同じ出力先で比較する。
+ * </PRE>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EngineCompressBenchmark{
+
+	@Benchmark
+	public Collection<String> tarContext(Archive a, Context c, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return c.context.call(()->a.tarProcessor.compress(a.out("c.tar")));
+	}
+	@Benchmark
+	public Collection<String> tarPrefetch(Archive a, Threads t, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return a.tarProcessor.compress(a.out("c.tar"), t.executor);
+	}
+
+	@Benchmark
+	public Collection<String> tarGzipContext(Archive a, Context c, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return c.context.call(()->a.tarGzipProcessor.compress(a.out("c.tar.gz")));
+	}
+	@Benchmark
+	public Collection<String> tarGzipPrefetch(Archive a, Threads t, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return a.tarGzipProcessor.compress(a.out("c.tar.gz"), null, t.executor);
+	}
+	@Benchmark
+	public Collection<String> tarGzipParallel(Archive a, Threads t, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return a.tarGzipProcessor.parallelCompress(a.out("c.tar.gz"), Deflater.DEFAULT_COMPRESSION, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, t.threads);
+	}
+}
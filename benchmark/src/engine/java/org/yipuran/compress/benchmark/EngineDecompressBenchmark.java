@@ -0,0 +1,55 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yipuran.compress.TarGzipProcessor;
+import org.yipuran.compress.TarProcessor;
+import org.yipuran.compress.benchmark.EngineState.Context;
+import org.yipuran.compress.benchmark.EngineState.Threads;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Archive;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Bytes;
+
+/**
+ * 新しいエンジンの展開のベンチマーク.
+ * <PRE>
+ * TarContext のコピーバッファサイズ、スレッド数指定の並列展開・解凍の先読みで計測する。
+ * 展開先は DecompressBenchmark と同じく、iteration 毎に削除する。
+ * </PRE>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EngineDecompressBenchmark{
+
+	@Benchmark
+	public Collection<String> tarContext(Archive a, Context c, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return c.context.call(()->TarProcessor.decompress(a.tarPath, a.outPath));
+	}
+	@Benchmark
+	public Collection<String> tarParallel(Archive a, Threads t, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return TarProcessor.decompress(a.tarPath, a.outPath, t.threads);
+	}
+
+	@Benchmark
+	public Collection<String> tarGzipContext(Archive a, Context c, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return c.context.call(()->TarGzipProcessor.decompress(a.targzPath, a.outPath));
+	}
+	@Benchmark
+	public Collection<String> tarGzipReadAhead(Archive a, Threads t, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return TarGzipProcessor.decompress(a.targzPath, a.outPath, t.executor);
+	}
+}
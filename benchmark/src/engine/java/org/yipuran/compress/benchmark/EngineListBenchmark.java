@@ -0,0 +1,41 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yipuran.compress.TarGzipProcessor;
+import org.yipuran.compress.benchmark.EngineState.Context;
+import org.yipuran.compress.benchmark.EngineState.Threads;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Archive;
+
+/**
+ * 新しいエンジンの一覧・選択展開のベンチマーク.
+ * <PRE>
+ * 解凍の先読みを使う viewPath と、TarContext の中で実行する predicateOpen を計測する。
+ * predicateOpen は ListBenchmark と同じく約 1/10 のファイルを選ぶ。
+ * </PRE>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EngineListBenchmark{
+
+	@Benchmark
+	public Collection<String> tarGzipViewPathReadAhead(Archive a, Threads t){
+		return TarGzipProcessor.viewPath(a.targzPath, t.executor);
+	}
+	@Benchmark
+	public String tarGzipPredicateOpenContext(Archive a, Context c){
+		c.context.run(()->TarGzipProcessor.predicateOpen(a.targzPath, a.dir("select"), ListBenchmark.TENTH));
+		return a.outPath;
+	}
+}
@@ -0,0 +1,65 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.yipuran.compress.TarContext;
+
+/**
+ * 新しいエンジンのベンチマークの状態.
+ * <PRE>
+ * ベンチマークメソッドが引数に取った State の @Param だけが組合せの対象になるので、
+ * スレッド数とバッファサイズを別々の State に分けている。
+ * </PRE>
+ */
+public final class EngineState{
+	private EngineState(){}
+
+	/**
+	 * 並列処理のスレッド数.
+	 */
+	@State(Scope.Benchmark)
+	public static class Threads{
+		@Param({"1", "2", "4"})
+		public int threads;
+
+		/** threads 数の ExecutorService、先読み・並列処理に渡す */
+		public ExecutorService executor;
+
+		@Setup(Level.Trial)
+		public void setup(){
+			executor = Executors.newFixedThreadPool(threads);
+		}
+		@TearDown(Level.Trial)
+		public void tearDown(){
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * コピーバッファサイズを指定した TarContext.
+	 */
+	@State(Scope.Benchmark)
+	public static class Context{
+		@Param({"8192", "65536", "1048576"})
+		public int bufferSize;
+
+		/** bufferSize の TarContext、処理をこの中で実行する */
+		public TarContext context;
+
+		@Setup(Level.Trial)
+		public void setup(){
+			context = TarContext.of().bufferSize(bufferSize);
+		}
+		@TearDown(Level.Trial)
+		public void tearDown(){
+			context.close();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.yipuran.compress.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * ベンチマーク用の合成コーパス.
+ * <PRE>
+ * 乱数の種を固定して生成するので、同じ種類のコーパスは毎回同じ内容になる。
+ * 生成したコーパスは yipuran.bench.dir（省略時は java.io.tmpdir/yipuran-compress-bench）に置き、
+ * 完了マーカーがあれば次回からは再利用する。
+ * </PRE>
+ */
+public enum Corpus{
+	/** 64B～2KB のテキストファイル 10,000 個、100 ディレクトリ */
+	TINY{
+		@Override
+		void generate(File dir, Random random) throws IOException{
+			for(int i=0; i < 10_000; i++){
+				write(new File(dir, "d" + (i % 100) + "/f" + i + ".txt"), text(random, 64 + random.nextInt(2048 - 64)));
+			}
+		}
+	},
+	/** 128MB のファイル 2 個、テキストとランダムバイナリ */
+	HUGE{
+		@Override
+		void generate(File dir, Random random) throws IOException{
+			writeText(new File(dir, "huge.log"), random, 128L << 20);
+			writeRandom(new File(dir, "huge.bin"), random, 128L << 20);
+		}
+	},
+	/** 圧縮しやすい 1MB のテキストファイル 64 個 */
+	TEXT{
+		@Override
+		void generate(File dir, Random random) throws IOException{
+			for(int i=0; i < 64; i++){
+				writeText(new File(dir, "t" + i + ".txt"), random, 1L << 20);
+			}
+		}
+	},
+	/** 圧縮できない 1MB のランダムバイナリファイル 64 個 */
+	RANDOM{
+		@Override
+		void generate(File dir, Random random) throws IOException{
+			for(int i=0; i < 64; i++){
+				writeRandom(new File(dir, "r" + i + ".bin"), random, 1L << 20);
+			}
+		}
+	};
+
+	private static final String MARKER = ".complete";
+	private static final String[] WORDS = {
+		"tar", "gzip", "entry", "header", "block", "record", "stream", "buffer", "archive", "compress",
+		"decompress", "file", "directory", "size", "name", "mode", "time", "user", "group", "link",
+		"INFO", "WARN", "DEBUG", "2024-01-01T00:00:00", "request", "response", "id=", "status=200", "ms", "OK",
+	};
+
+	abstract void generate(File dir, Random random) throws IOException;
+
+	/**
+	 * コーパスの取得.
+	 * @return コーパスのルートディレクトリ、無い場合は生成する
+	 */
+	public File prepare(){
+		File dir = new File(System.getProperty("yipuran.bench.dir", new File(System.getProperty("java.io.tmpdir"), "yipuran-compress-bench").getPath()), "corpus/" + name().toLowerCase());
+		if (new File(dir, MARKER).exists()) return new File(dir, "data");
+		try{
+			delete(dir);
+			generate(new File(dir, "data"), new Random(ordinal() + 1));
+			new File(dir, MARKER).createNewFile();
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return new File(dir, "data");
+	}
+
+	private static byte[] text(Random random, int size){
+		StringBuilder sb = new StringBuilder(size + 32);
+		while(sb.length() < size){
+			sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(16)==0 ? '\n' : ' ');
+		}
+		return sb.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+	}
+	private static void write(File file, byte[] data) throws IOException{
+		file.getParentFile().mkdirs();
+		try(OutputStream out = new FileOutputStream(file)){
+			out.write(data);
+		}
+	}
+	private static void writeText(File file, Random random, long size) throws IOException{
+		file.getParentFile().mkdirs();
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)){
+			for(long n=0; n < size; n += 1 << 16){
+				out.write(text(random, (int)Math.min(1 << 16, size - n)));
+			}
+		}
+	}
+	private static void writeRandom(File file, Random random, long size) throws IOException{
+		file.getParentFile().mkdirs();
+		byte[] buf = new byte[1 << 16];
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)){
+			for(long n=0; n < size; n += buf.length){
+				random.nextBytes(buf);
+				out.write(buf, 0, (int)Math.min(buf.length, size - n));
+			}
+		}
+	}
+
+	/**
+	 * ディレクトリツリーの削除.
+	 * @param dir 削除するディレクトリ、無い場合は何もしない
+	 * @throws IOException
+	 */
+	static void delete(File dir) throws IOException{
+		if (!dir.exists()) return;
+		try(Stream<Path> s = Files.walk(dir.toPath())){
+			for(Path p : (Iterable<Path>)s.sorted(Comparator.reverseOrder())::iterator){
+				Files.delete(p);
+			}
+		}
+	}
+	/**
+	 * ディレクトリツリーの合計サイズ.
+	 * @param dir ディレクトリ
+	 * @return ファイルサイズの合計
+	 * @throws IOException
+	 */
+	static long size(File dir) throws IOException{
+		try(Stream<Path> s = Files.walk(dir.toPath())){
+			return s.filter(Files::isRegularFile).mapToLong(p->p.toFile().length()).sum();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yipuran.compress.TarGzipProcessor;
+import org.yipuran.compress.TarProcessor;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Archive;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Bytes;
+
+/**
+ * 展開のベンチマーク.
+ * <PRE>
+ * TarProcessor / TarGzipProcessor の decompress(String, String) を計測する。
+ * 4.0 の API だけを使うので、版を変えて同じ条件で比較できる。
+ * 展開先は同じディレクトリに上書きし、iteration 毎に削除する。
+ * </PRE>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class DecompressBenchmark{
+
+	@Benchmark
+	public Collection<String> tar(Archive a, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return TarProcessor.decompress(a.tarPath, a.outPath);
+	}
+
+	@Benchmark
+	public Collection<String> tarGzip(Archive a, Bytes bytes){
+		bytes.rawBytes += a.sourceSize;
+		return TarGzipProcessor.decompress(a.targzPath, a.outPath);
+	}
+}
@@ -0,0 +1,57 @@
+package org.yipuran.compress.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yipuran.compress.TarGzipProcessor;
+import org.yipuran.compress.TarProcessor;
+import org.yipuran.compress.benchmark.TarBenchmarkState.Archive;
+
+/**
+ * 一覧・選択展開のベンチマーク.
+ * <PRE>
+ * viewPath、entries、predicateOpen を計測する。
+ * predicateOpen はエントリ名のハッシュで約 1/10 のファイルを選ぶ。
+ * 4.0 の API だけを使うので、版を変えて同じ条件で比較できる。
+ * </PRE>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ListBenchmark{
+	static final Predicate<ArchiveEntry> TENTH = e->!e.isDirectory() && Math.floorMod(e.getName().hashCode(), 10)==0;
+
+	@Benchmark
+	public Collection<String> tarViewPath(Archive a){
+		return TarProcessor.viewPath(a.tarPath);
+	}
+	@Benchmark
+	public Collection<ArchiveEntry> tarEntries(Archive a){
+		return TarProcessor.entries(a.tarPath);
+	}
+
+	@Benchmark
+	public Collection<String> tarGzipViewPath(Archive a){
+		return TarGzipProcessor.viewPath(a.targzPath);
+	}
+	@Benchmark
+	public Collection<ArchiveEntry> tarGzipEntries(Archive a){
+		return TarGzipProcessor.entries(a.targzPath);
+	}
+	@Benchmark
+	public String tarGzipPredicateOpen(Archive a){
+		TarGzipProcessor.predicateOpen(a.targzPath, a.dir("select"), TENTH);
+		return a.outPath;
+	}
+}
@@ -0,0 +1,108 @@
+package org.yipuran.compress.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.yipuran.compress.TarGzipProcessor;
+import org.yipuran.compress.TarProcessor;
+import org.yipuran.file.FileCollection;
+
+/**
+ * ベンチマークの状態.
+ * <PRE>
+ * 4.0 の API だけを使う。この版で追加した API の State（スレッド数、TarContext）は EngineState（-P engine）にある。
+ * </PRE>
+ */
+public final class TarBenchmarkState{
+	private TarBenchmarkState(){}
+
+	/**
+	 * コーパスと、そこから作成した tar / tar.gz.
+	 */
+	@State(Scope.Benchmark)
+	public static class Archive{
+		@Param({"TINY", "HUGE", "TEXT", "RANDOM"})
+		public Corpus corpus;
+
+		public File source;
+		public long sourceSize;
+		public File work;
+		public String tarPath;
+		public String targzPath;
+		public String outPath;
+		public TarProcessor tarProcessor;
+		public TarGzipProcessor tarGzipProcessor;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException{
+			source = corpus.prepare();
+			sourceSize = Corpus.size(source);
+			work = new File(source.getParentFile().getParentFile().getParentFile(), "work/" + corpus.name().toLowerCase());
+			Corpus.delete(work);
+			work.mkdirs();
+			FileCollection fc = FileCollection.of(source.getAbsolutePath());
+			tarProcessor = ()->Arrays.asList(fc);
+			tarGzipProcessor = ()->Arrays.asList(fc);
+			tarPath = new File(work, "corpus.tar").getAbsolutePath();
+			targzPath = new File(work, "corpus.tar.gz").getAbsolutePath();
+			outPath = new File(work, "out").getAbsolutePath();
+			// 展開・一覧のベンチマーク用、計測する版で作成する
+			tarProcessor.compress(tarPath);
+			tarGzipProcessor.compress(targzPath);
+		}
+		/**
+		 * 展開先・圧縮先の削除、次の iteration を同じ条件で始める.
+		 * @throws IOException
+		 */
+		@TearDown(Level.Iteration)
+		public void clean() throws IOException{
+			Corpus.delete(new File(outPath));
+		}
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException{
+			Corpus.delete(work);
+		}
+		/**
+		 * 圧縮先ファイル.
+		 * @param name ファイル名
+		 * @return out ディレクトリのファイルパス
+		 */
+		public String out(String name){
+			File dir = new File(outPath);
+			if (!dir.exists()) dir.mkdirs();
+			return new File(dir, name).getAbsolutePath();
+		}
+		/**
+		 * 展開先ディレクトリ.
+		 * @param name ディレクトリ名
+		 * @return out ディレクトリに作成したディレクトリのパス
+		 */
+		public String dir(String name){
+			File dir = new File(outPath, name);
+			if (!dir.exists()) dir.mkdirs();
+			return dir.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * 処理したコーパスのバイト数、Throughput では bytes/秒 で出力される.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes{
+		public long rawBytes;
+
+		@Setup(Level.Iteration)
+		public void reset(){
+			rawBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package org.yipuran.compress.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * ベンチマークの起動.
+ * <PRE>
+ * JMH の org.openjdk.jmh.Main と同じコマンドライン引数を受け付け、常に -prof gc を付けて実行する。
+ * 出力には Throughput（ops/s と rawBytes = コーパスの bytes/s）、SampleTime（s/op のパーセンタイル）、
+ * gc.alloc.rate / gc.alloc.rate.norm（割当て速度、１操作あたりの割当てバイト数）が出る。
+ * 例）
+ *    java -jar target/benchmarks.jar
+ *    java -jar target/benchmarks.jar Decompress -p corpus=HUGE,TINY
+ *    java -jar target/benchmarks.jar Engine -p threads=4          （-P engine でビルドした場合）
+ *    java -jar target/benchmarks.jar -rf json -rff result.json
+ * </PRE>
+ */
+public final class TarBenchmarks{
+	private TarBenchmarks(){}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException{
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,233 @@
+package org.yipuran.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * チェックポイントから再開する gzip 解凍ストリーム.
+ * <PRE>
+ * バイト境界に揃った deflate データ位置から、直前 32KB の辞書を与えて解凍を再開する。
+ * gzip メンバー終端ではトレーラーを読み飛ばし、後続メンバーがあれば続けて解凍する。
+ * ランダムアクセス用なので、途中から読む場合 CRC の検証は行わない。
+ * TarContext を指定した場合は先頭から読む通常の解凍で、Inflater とバッファをプールから取得し、
+ * 各メンバーのトレーラー（CRC32、ISIZE）を検証する。
+ * </PRE>
+ */
+final class CheckpointInflaterInputStream extends InputStream{
+	private final InputStream in;
+	private final Inflater inflater;
+	private final byte[] buf;
+	private final byte[] single = new byte[1];
+	private final MemberListener memberListener;
+	private final TarContext context;
+	private final CRC32 crc;
+	private byte[] skipBuffer;
+	private int bufStart;
+	private int bufLength;
+	private long bufPosition;
+	private long uncompressed;
+	private boolean eof;
+	private boolean closed;
+
+	/**
+	 * コンストラクタ.
+	 * @param in 読込み元、deflate データ位置（atHeader の場合は gzip ヘッダー位置）に位置づけ済であること
+	 * @param position in の現在のファイル位置
+	 * @param uncompressedOffset 再開位置の解凍後オフセット
+	 * @param window 再開位置直前の解凍データ（最大 32KB）、無い場合は空配列
+	 * @param atHeader in が gzip ヘッダー位置の場合 true
+	 * @param memberListener gzip メンバー開始の通知先、null 可
+	 * @throws IOException
+	 */
+	CheckpointInflaterInputStream(InputStream in, long position, long uncompressedOffset, byte[] window, boolean atHeader, MemberListener memberListener) throws IOException{
+		this.in = in;
+		this.inflater = new Inflater(true);
+		this.buf = new byte[TarSupport.BUFFER_SIZE];
+		this.bufPosition = position;
+		this.uncompressed = uncompressedOffset;
+		this.memberListener = memberListener;
+		this.context = null;
+		this.crc = null;
+		if (atHeader){
+			if (!readHeader(true)) throw new EOFException("No gzip header");
+		}else if(window.length > 0){
+			inflater.setDictionary(window);
+		}
+	}
+
+	/**
+	 * コンストラクタ（TarContext のプールを使う gzip 解凍）.
+	 * @param in 読込み元、gzip ヘッダー位置
+	 * @param context Inflater とバッファを取得する TarContext
+	 * @throws IOException
+	 */
+	CheckpointInflaterInputStream(InputStream in, TarContext context) throws IOException{
+		this.in = in;
+		this.inflater = context.inflater();
+		this.buf = context.buffer();
+		this.memberListener = null;
+		this.context = context;
+		this.crc = new CRC32();
+		try{
+			if (!readHeader(true)) throw new IOException("Input is not in the .gz format");
+		}catch(IOException | RuntimeException ex){
+			release();
+			throw ex;
+		}
+	}
+
+	@Override
+	public int read() throws IOException{
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException{
+		if (len==0) return 0;
+		while(!eof){
+			try{
+				int n = inflater.inflate(b, off, len);
+				if (n > 0){
+					if (crc != null) crc.update(b, off, n);
+					uncompressed += n;
+					return n;
+				}
+			}catch(DataFormatException ex){
+				throw new IOException(ex.getMessage(), ex);
+			}
+			if (inflater.finished()){
+				bufStart = bufLength - inflater.getRemaining();
+				readTrailer();
+				inflater.reset();
+				if (!readHeader(false)) eof = true;
+			}else if(inflater.needsInput()){
+				if (fill() < 0) throw new EOFException("Unexpected end of gzip stream");
+				inflater.setInput(buf, bufStart, bufLength - bufStart);
+			}else if(inflater.needsDictionary()){
+				throw new IOException("Missing deflate dictionary");
+			}
+		}
+		return -1;
+	}
+	@Override
+	public long skip(long n) throws IOException{
+		if (skipBuffer==null){
+			skipBuffer = context==null ? new byte[TarSupport.BUFFER_SIZE] : context.buffer();
+		}
+		byte[] b = skipBuffer;
+		long skipped = 0;
+		int k = 0;
+		while(skipped < n && (k = read(b, 0, (int)Math.min(n - skipped, b.length))) >= 0){
+			skipped += k;
+		}
+		return skipped;
+	}
+	@Override
+	public void close() throws IOException{
+		if (closed) return;
+		closed = true;
+		try{
+			in.close();
+		}finally{
+			release();
+		}
+	}
+	private void release(){
+		if (context==null){
+			inflater.end();
+			return;
+		}
+		context.release(inflater);
+		context.release(buf);
+		if (skipBuffer != null) context.release(skipBuffer);
+	}
+
+	private int fill() throws IOException{
+		bufPosition += bufLength;
+		bufStart = 0;
+		bufLength = in.read(buf, 0, buf.length);
+		if (bufLength < 0){
+			bufLength = 0;
+			return -1;
+		}
+		return bufLength;
+	}
+	private int readByte() throws IOException{
+		if (bufStart==bufLength && fill() < 0) return -1;
+		return buf[bufStart++] & 0xff;
+	}
+	private int requireByte() throws IOException{
+		int b = readByte();
+		if (b < 0) throw new EOFException("Unexpected end of gzip stream");
+		return b;
+	}
+	private void skipBytes(int n) throws IOException{
+		for(int i=0; i < n; i++){
+			requireByte();
+		}
+	}
+	/** ヘッダーの FNAME／FCOMMENT（0 終端の文字列） */
+	private void skipString() throws IOException{
+		while(requireByte() != 0);
+	}
+	/**
+	 * gzip メンバーのトレーラー.
+	 * TarContext の解凍では CRC32 と ISIZE を検証する。
+	 */
+	private void readTrailer() throws IOException{
+		long c = 0;
+		long size = 0;
+		for(int i=0; i < 8; i++){
+			int b = requireByte();
+			if (i < 4){
+				c |= (long)b << (i * 8);
+			}else{
+				size |= (long)b << ((i - 4) * 8);
+			}
+		}
+		if (crc==null) return;
+		if (c != crc.getValue()) throw new IOException("Gzip-compressed data is corrupt (CRC32 error)");
+		if (size != (inflater.getBytesWritten() & 0xffffffffL)) throw new IOException("Gzip-compressed data is corrupt (uncompressed size mismatch)");
+		crc.reset();
+	}
+	/**
+	 * gzip メンバーのヘッダー.
+	 * GzipCompressorInputStream(in, true) と同じく、メンバーの後の gzip でないデータはエラーにする。
+	 * @param first 最初のヘッダーの場合 true
+	 * @return ヘッダーの位置が入力の終わりの場合 false
+	 */
+	private boolean readHeader(boolean first) throws IOException{
+		int id1 = readByte();
+		if (id1 < 0) return false;
+		if (id1 != 0x1f || readByte() != 0x8b) throw new IOException(first ? "Input is not in the .gz format" : "Garbage after a valid .gz stream");
+		if (requireByte() != 8) throw new IOException("Unsupported gzip compression method");
+		int flags = requireByte();
+		if ((flags & 0xe0) != 0) throw new IOException("Reserved flags are set in the .gz header");
+		skipBytes(6);
+		if ((flags & 0x04) != 0){
+			int xlen = requireByte() | (requireByte() << 8);
+			skipBytes(xlen);
+		}
+		if ((flags & 0x08) != 0) skipString();
+		if ((flags & 0x10) != 0) skipString();
+		if ((flags & 0x02) != 0) skipBytes(2);
+		if (memberListener != null) memberListener.memberStart(bufPosition + bufStart, uncompressed);
+		inflater.setInput(buf, bufStart, bufLength - bufStart);
+		return true;
+	}
+
+	/**
+	 * gzip メンバー開始通知.
+	 */
+	@FunctionalInterface
+	interface MemberListener{
+		/**
+		 * @param position メンバーの deflate データ開始位置
+		 * @param uncompressedOffset メンバー開始位置の解凍後オフセット
+		 */
+		void memberStart(long position, long uncompressedOffset);
+	}
+}
@@ -0,0 +1,286 @@
+package org.yipuran.compress;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarFile;
+
+/**
+ * tar ランダムアクセスリーダー.
+ * <PRE>
+ * 非圧縮 tar を FileChannel で開き、最初にヘッダーだけを走査して エントリ名 → データ位置 の表を作成する。
+ * 以降は個々のエントリを先頭から読み直さずに、InputStream またはメモリマップした ByteBuffer で参照できる。
+ * 例）
+ *    try(MappedTarFile tar = TarProcessor.randomAccess(tarPath)){
+ *        ByteBuffer buf = tar.map("data/a/b.txt");
+ *        ...
+ *    }
+ * </PRE>
+ */
+public final class MappedTarFile implements Closeable{
+	private final FileChannel channel;
+	private final TarFile tarFile;
+	private final List<TarArchiveEntry> entries;
+	private final Map<String, TarArchiveEntry> entryMap = new LinkedHashMap<>();
+
+	/**
+	 * コンストラクタ.
+	 * @param tarPath tar ファイルパス、 *.tar
+	 */
+	public MappedTarFile(String tarPath){
+		try{
+			channel = FileChannel.open(Paths.get(tarPath), StandardOpenOption.READ);
+			try{
+				tarFile = new TarFile(channel);
+			}catch(IOException | RuntimeException ex){
+				channel.close();
+				throw ex;
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		entries = Collections.unmodifiableList(tarFile.getEntries());
+		entries.forEach(e->entryMap.put(e.getName(), e));
+	}
+
+	/**
+	 * エントリ名コレクション.
+	 * 同じエントリ名が複数ある場合は、TarProcessor#viewPath と同じくすべてを返す。
+	 * @return Collection<String>、アーカイブ内の順序
+	 */
+	public Collection<String> viewPath(){
+		return entries.stream().map(TarArchiveEntry::getName).collect(Collectors.toList());
+	}
+	/**
+	 * TarArchiveEntry リスト.
+	 * @return List<TarArchiveEntry>、アーカイブ内の順序
+	 */
+	public List<TarArchiveEntry> getEntries(){
+		return entries;
+	}
+	/**
+	 * Predicate→ArchiveEntryコレクション.
+	 * @param p ファイルのArchiveEntry の Predicate
+	 * @return Collection<ArchiveEntry>
+	 */
+	public Collection<ArchiveEntry> entries(Predicate<ArchiveEntry> p){
+		return entries.stream().filter(p).collect(Collectors.toList());
+	}
+	/**
+	 * エントリ検索.
+	 * @param name エントリ名
+	 * @return TarArchiveEntry、存在しない場合は null
+	 */
+	public TarArchiveEntry getEntry(String name){
+		return entryMap.get(name);
+	}
+	/**
+	 * エントリ読込み.
+	 * hard link エントリはリンク先エントリのデータを読む。
+	 * @param name エントリ名
+	 * @return エントリのデータだけを読む InputStream
+	 */
+	public InputStream getInputStream(String name){
+		try{
+			return tarFile.getInputStream(dataEntry(name));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * エントリのメモリマップ.
+	 * <PRE>
+	 * エントリのデータ領域を読込み専用でメモリマップする。
+	 * 2GB を超えるエントリは map(name, position, length) で部分的にマップすること。
+	 * sparse エントリはマップできないので getInputStream で読むこと。
+	 * hard link エントリはリンク先エントリのデータをマップする。
+	 * </PRE>
+	 * @param name エントリ名
+	 * @return 読込み専用 ByteBuffer
+	 */
+	public ByteBuffer map(String name){
+		TarArchiveEntry entry = dataEntry(name);
+		if (entry.getSize() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Entry too large to map : " + name);
+		return map(name, 0, (int)entry.getSize());
+	}
+	/**
+	 * エントリの部分メモリマップ.
+	 * @param name エントリ名
+	 * @param position エントリ内の開始位置
+	 * @param length マップするバイト数
+	 * @return 読込み専用 ByteBuffer
+	 */
+	public ByteBuffer map(String name, long position, int length){
+		TarArchiveEntry entry = dataEntry(name);
+		if (entry.isSparse())
+			throw new IllegalArgumentException("Sparse entry cannot be mapped : " + name);
+		if (position < 0 || length < 0 || position + length > entry.getSize())
+			throw new IndexOutOfBoundsException("position=" + position + " length=" + length + " size=" + entry.getSize());
+		try{
+			return channel.map(FileChannel.MapMode.READ_ONLY, entry.getDataOffset() + position, length);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * 並列展開.
+	 * <PRE>
+	 * 走査済のエントリ表から、ディレクトリを先に作成し、threads 数のスレッドで
+	 * 各エントリのデータを位置指定の FileChannel#transferTo でファイルに書込む。
+	 * 同じエントリ名が複数ある場合は、直列の展開と同じく後のエントリが残る。
+	 * hard link エントリは、ファイルをすべて書込んだ後に作成する。
+	 * </PRE>
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param threads 展開スレッド数
+	 * @return 展開された tar エントリ名、アーカイブ内の順序
+	 */
+	public Collection<String> extract(String dirPath, int threads){
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+		// 展開先の外を指すエントリ名・リンク名があれば、何も書込まずにエラーにする
+		Map<String, Path> paths = new LinkedHashMap<>();
+		try{
+			for(TarArchiveEntry entry : entries){
+				paths.put(entry.getName(), TarSupport.resolve(dirPath, entry.getName()));
+				if (entry.isLink()) TarSupport.resolve(dirPath, entry.getLinkName());
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		Map<String, TarArchiveEntry> files = new LinkedHashMap<>();
+		List<TarArchiveEntry> links = new ArrayList<>();
+		for(TarArchiveEntry entry : entries){
+			File file = paths.get(entry.getName()).toFile();
+			if (entry.isDirectory()){
+				file.mkdirs();
+				continue;
+			}
+			File parent = file.getParentFile();
+			if (!parent.exists()) parent.mkdirs();
+			if (entry.isLink()){
+				links.add(entry);
+				continue;
+			}
+			files.remove(entry.getName());
+			files.put(entry.getName(), entry);
+		}
+		if (threads==1){
+			try{
+				for(TarArchiveEntry entry : files.values()){
+					extract(entry, paths.get(entry.getName()));
+				}
+			}catch(IOException ex){
+				throw new RuntimeException(ex.getMessage(), ex);
+			}
+			link(dirPath, links, paths);
+			return entries.stream().map(TarArchiveEntry::getName).collect(Collectors.toList());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<?>> futures = new ArrayList<>(files.size());
+			for(TarArchiveEntry entry : files.values()){
+				Path path = paths.get(entry.getName());
+				futures.add(executor.submit(()->{
+					extract(entry, path);
+					return null;
+				}));
+			}
+			for(Future<?> future : futures){
+				future.get();
+			}
+		}catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			throw new RuntimeException(cause.getMessage(), cause);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex.getMessage(), ex);
+		}finally{
+			executor.shutdownNow();
+		}
+		link(dirPath, links, paths);
+		return entries.stream().map(TarArchiveEntry::getName).collect(Collectors.toList());
+	}
+	private void link(String dirPath, List<TarArchiveEntry> links, Map<String, Path> paths){
+		try{
+			for(TarArchiveEntry entry : links){
+				TarSupport.link(paths.get(entry.getName()), TarSupport.resolve(dirPath, entry.getLinkName()));
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	private void extract(TarArchiveEntry entry, Path path) throws IOException{
+		TarMonitor.entryStarted(entry);
+		if (entry.isSparse()){
+			// TarFile の sparse の読込みは FileChannel の position を移動するので、並列に読まない
+			synchronized(tarFile){
+				byte[] buf = TarSupport.buffer();
+				try(InputStream in = tarFile.getInputStream(entry)){
+					TarSparseWriter.extract(path, in, entry.getRealSize(), buf);
+				}finally{
+					TarSupport.release(buf);
+				}
+			}
+		}else{
+			try(FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+				long position = entry.getDataOffset();
+				long remaining = entry.getSize();
+				while(remaining > 0){
+					long n = channel.transferTo(position, remaining, out);
+					if (n <= 0) throw new EOFException("Unexpected end of tar : " + entry.getName());
+					TarMonitor.rawBytes(n);
+					position += n;
+					remaining -= n;
+				}
+			}
+		}
+		TarMonitor.entryFinished(entry);
+	}
+	private TarArchiveEntry requireEntry(String name){
+		TarArchiveEntry entry = entryMap.get(name);
+		if (entry==null) throw new IllegalArgumentException("No such entry : " + name);
+		return entry;
+	}
+	/**
+	 * データを持つエントリ.
+	 * @param name エントリ名
+	 * @return hard link エントリの場合はリンク先のエントリ
+	 */
+	private TarArchiveEntry dataEntry(String name){
+		TarArchiveEntry entry = requireEntry(name);
+		for(int i=0; entry.isLink(); i++){
+			if (i > entries.size()) throw new IllegalStateException("hard link loop : " + name);
+			TarArchiveEntry target = entryMap.get(entry.getLinkName());
+			if (target==null) throw new IllegalStateException("hard link target not in archive : " + entry.getLinkName());
+			entry = target;
+		}
+		return entry;
+	}
+
+	@Override
+	public void close() throws IOException{
+		tarFile.close();
+	}
+}
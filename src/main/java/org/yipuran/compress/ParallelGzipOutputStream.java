@@ -0,0 +1,289 @@
+package org.yipuran.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 並列 gzip 出力ストリーム.
+ * <PRE>
+ * 書込まれたデータを固定長ブロックに分割し、ブロック毎に並列で deflate 圧縮する。（pigz 方式）
+ * 各ブロックは直前ブロックの末尾 32KB を辞書として圧縮し、SYNC_FLUSH でバイト境界に揃えるので
+ * 書込み順に連結した結果は１つの標準 gzip ストリームになり、gunzip や GzipCompressorInputStream で読める。
+ * 例）
+ *    try(FileOutputStream fos = new FileOutputStream(targzPath);
+ *        ParallelGzipOutputStream gout = new ParallelGzipOutputStream(fos, 6, 128 * 1024, 8);
+ *        TarArchiveOutputStream taos = new TarArchiveOutputStream(gout)){
+ *        ...
+ *    }
+ * </PRE>
+ */
+public class ParallelGzipOutputStream extends OutputStream{
+	/** デフォルトブロックサイズ */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	/** deflate 辞書サイズ */
+	static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private final OutputStream out;
+	private final int level;
+	private final int blockSize;
+	private final ExecutorService executor;
+	private final boolean shutdownExecutor;
+	private final int maxPending;
+	private final Deque<Pending> pending = new ArrayDeque<>();
+	private final Deque<byte[]> blockPool = new ArrayDeque<>();
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final CRC32 crc = new CRC32();
+	private final byte[] single = new byte[1];
+	private byte[] block;
+	private int blockLength;
+	private byte[] dictionary;
+	private long totalIn;
+	private long totalOut;
+	private long checkpointSpan;
+	private long nextCheckpoint;
+	private final List<TarGzipIndex.Checkpoint> checkpoints = new ArrayList<>();
+	private boolean headerWritten;
+	private boolean closed;
+
+	/**
+	 * コンストラクタ（デフォルト圧縮レベル、デフォルトブロックサイズ、CPU数のスレッド）.
+	 * @param out 出力先 OutputStream
+	 */
+	public ParallelGzipOutputStream(OutputStream out){
+		this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * コンストラクタ（スレッド数指定）.
+	 * @param out 出力先 OutputStream
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize ブロックサイズ、32KB 以上
+	 * @param threads 圧縮スレッド数、close で終了する。
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int threads){
+		this(out, level, blockSize, Executors.newFixedThreadPool(requirePositive(threads), r->{
+			Thread t = new Thread(r, "ParallelGzipOutputStream");
+			t.setDaemon(true);
+			return t;
+		}), threads, true);
+	}
+	/**
+	 * コンストラクタ（ExecutorService 指定）.
+	 * @param out 出力先 OutputStream
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize ブロックサイズ、32KB 以上
+	 * @param executor 圧縮を実行する ExecutorService、close で終了しない。
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, ExecutorService executor){
+		this(out, level, blockSize, executor, Runtime.getRuntime().availableProcessors(), false);
+	}
+	private ParallelGzipOutputStream(OutputStream out, int level, int blockSize, ExecutorService executor, int threads, boolean shutdownExecutor){
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level : " + level);
+		if (blockSize < DICTIONARY_SIZE)
+			throw new IllegalArgumentException("blockSize must be at least " + DICTIONARY_SIZE + " : " + blockSize);
+		this.out = out;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.executor = executor;
+		this.shutdownExecutor = shutdownExecutor;
+		this.maxPending = threads * 2;
+		this.block = new byte[blockSize];
+	}
+	private static int requirePositive(int threads){
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+		return threads;
+	}
+
+	/**
+	 * 解凍再開チェックポイントの記録開始.
+	 * <PRE>
+	 * 解凍後オフセットで span 毎に、ブロック境界の deflate データ位置と直前 32KB の辞書を記録する。
+	 * 最初のデータを書込む前に指定すること。
+	 * </PRE>
+	 * @param span チェックポイント間隔（解凍後バイト数）
+	 */
+	public void setCheckpointSpan(long span){
+		if (span < 1) throw new IllegalArgumentException("span must be positive : " + span);
+		this.checkpointSpan = span;
+	}
+	/**
+	 * 記録した解凍再開チェックポイント.
+	 * @return List<TarGzipIndex.Checkpoint>、書込み済のブロックの分だけ返す。
+	 */
+	public List<TarGzipIndex.Checkpoint> getCheckpoints(){
+		return checkpoints;
+	}
+
+	@Override
+	public void write(int b) throws IOException{
+		single[0] = (byte)b;
+		write(single, 0, 1);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		if (closed) throw new IOException("Stream closed");
+		while(len > 0){
+			int n = Math.min(len, blockSize - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+			if (blockLength==blockSize){
+				submit(false);
+			}
+		}
+	}
+	/**
+	 * 圧縮中のブロックをすべて出力して flush する.
+	 * 途中のブロックも SYNC_FLUSH で区切るので、圧縮率は僅かに下がる。
+	 */
+	@Override
+	public void flush() throws IOException{
+		if (closed) throw new IOException("Stream closed");
+		if (blockLength > 0){
+			submit(false);
+		}
+		while(!pending.isEmpty()){
+			writeBlock(pending.poll());
+		}
+		out.flush();
+	}
+	/**
+	 * 最終ブロックと gzip トレーラーを出力して閉じる.
+	 * コンストラクタでスレッド数を指定した場合はスレッドプールも終了する。
+	 */
+	@Override
+	public void close() throws IOException{
+		if (closed) return;
+		try{
+			submit(true);
+			while(!pending.isEmpty()){
+				writeBlock(pending.poll());
+			}
+			writeTrailer();
+			out.flush();
+		}finally{
+			closed = true;
+			pending.forEach(b->b.future.cancel(true));
+			if (shutdownExecutor) executor.shutdownNow();
+			Deflater d;
+			while((d = deflaters.poll()) != null){
+				d.end();
+			}
+			out.close();
+		}
+	}
+
+	private void submit(boolean last) throws IOException{
+		if (!headerWritten){
+			writeHeader();
+			headerWritten = true;
+		}
+		final byte[] input = block;
+		final int length = blockLength;
+		final byte[] dict = dictionary;
+		final boolean checkpoint = checkpointSpan > 0 && totalIn >= nextCheckpoint;
+		if (checkpoint) nextCheckpoint = totalIn + checkpointSpan;
+		final long offset = totalIn;
+		crc.update(input, 0, length);
+		totalIn += length;
+		if (length >= DICTIONARY_SIZE){
+			dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+		}else if(length > 0){
+			byte[] d = new byte[Math.min(DICTIONARY_SIZE, (dict==null ? 0 : dict.length) + length)];
+			int keep = d.length - length;
+			if (keep > 0) System.arraycopy(dict, dict.length - keep, d, 0, keep);
+			System.arraycopy(input, 0, d, keep, length);
+			dictionary = d;
+		}
+		pending.add(new Pending(executor.submit(()->{
+			try{
+				return deflate(input, length, dict, last);
+			}finally{
+				synchronized(blockPool){
+					blockPool.push(input);
+				}
+			}
+		}), checkpoint ? offset : -1, dict));
+		synchronized(blockPool){
+			block = blockPool.isEmpty() ? new byte[blockSize] : blockPool.pop();
+		}
+		blockLength = 0;
+		while(pending.size() >= maxPending){
+			writeBlock(pending.poll());
+		}
+	}
+	private byte[] deflate(byte[] input, int length, byte[] dict, boolean last){
+		Deflater deflater = deflaters.poll();
+		if (deflater==null) deflater = new Deflater(level, true);
+		try{
+			if (dict != null) deflater.setDictionary(dict);
+			deflater.setInput(input, 0, length);
+			if (last) deflater.finish();
+			byte[] buf = new byte[length + (length >> 3) + 64];
+			int pos = 0;
+			while(true){
+				if (pos==buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+				int n = deflater.deflate(buf, pos, buf.length - pos, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				pos += n;
+				if (last ? deflater.finished() : pos < buf.length && deflater.needsInput()) break;
+			}
+			return pos==buf.length ? buf : Arrays.copyOf(buf, pos);
+		}finally{
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+	private void writeBlock(Pending block) throws IOException{
+		try{
+			byte[] data = block.future.get();
+			if (block.offset >= 0){
+				checkpoints.add(new TarGzipIndex.Checkpoint(totalOut, block.offset, block.window==null ? new byte[0] : block.window));
+			}
+			out.write(data);
+			totalOut += data.length;
+		}catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			throw new IOException(cause.getMessage(), cause);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", ex);
+		}
+	}
+	private void writeHeader() throws IOException{
+		int xfl = level==Deflater.BEST_COMPRESSION ? 2 : level==Deflater.BEST_SPEED ? 4 : 0;
+		out.write(new byte[]{ 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, (byte)xfl, (byte)255 });
+		totalOut += 10;
+	}
+	private void writeTrailer() throws IOException{
+		long c = crc.getValue();
+		out.write(new byte[]{
+			(byte)c, (byte)(c >> 8), (byte)(c >> 16), (byte)(c >> 24),
+			(byte)totalIn, (byte)(totalIn >> 8), (byte)(totalIn >> 16), (byte)(totalIn >> 24)
+		});
+	}
+
+	private static final class Pending{
+		final Future<byte[]> future;
+		final long offset;
+		final byte[] window;
+		Pending(Future<byte[]> future, long offset, byte[] window){
+			this.future = future;
+			this.offset = offset;
+			this.window = window;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.yipuran.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * TarContext の Deflater を使う gzip 出力ストリーム.
+ * <PRE>
+ * Deflater と出力バッファを TarContext のプールから取得し、close で返す。
+ * 書込まれたデータはコピーせずに Deflater に渡し、gzip メンバー１つを出力する。
+ * </PRE>
+ */
+final class PooledGzipOutputStream extends OutputStream{
+	private static final byte[] HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)255 };
+	private final OutputStream out;
+	private final TarContext context;
+	private final Deflater deflater;
+	private final byte[] buf;
+	private final CRC32 crc = new CRC32();
+	private final byte[] single = new byte[1];
+	private boolean closed;
+
+	/**
+	 * コンストラクタ.
+	 * @param out 出力先 OutputStream
+	 * @param context Deflater と出力バッファを取得する TarContext
+	 * @throws IOException
+	 */
+	PooledGzipOutputStream(OutputStream out, TarContext context) throws IOException{
+		this.out = out;
+		this.context = context;
+		this.deflater = context.deflater();
+		this.buf = context.buffer();
+		try{
+			out.write(HEADER);
+		}catch(IOException ex){
+			release();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException{
+		single[0] = (byte)b;
+		write(single, 0, 1);
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException{
+		if (closed) throw new IOException("Stream closed");
+		if (len==0) return;
+		crc.update(b, off, len);
+		deflater.setInput(b, off, len);
+		while(!deflater.needsInput()){
+			deflate();
+		}
+	}
+	@Override
+	public void flush() throws IOException{
+		out.flush();
+	}
+	@Override
+	public void close() throws IOException{
+		if (closed) return;
+		closed = true;
+		try{
+			deflater.finish();
+			while(!deflater.finished()){
+				deflate();
+			}
+			// トレーラー CRC32、ISIZE
+			long c = crc.getValue();
+			long n = deflater.getBytesRead();
+			for(int i=0; i < 4; i++){
+				buf[i] = (byte)(c >> (i * 8));
+				buf[i + 4] = (byte)(n >> (i * 8));
+			}
+			out.write(buf, 0, 8);
+		}finally{
+			try{
+				out.close();
+			}finally{
+				release();
+			}
+		}
+	}
+
+	private void deflate() throws IOException{
+		int n = deflater.deflate(buf, 0, buf.length);
+		if (n > 0) out.write(buf, 0, n);
+	}
+	private void release(){
+		context.release(deflater);
+		context.release(buf);
+	}
+}
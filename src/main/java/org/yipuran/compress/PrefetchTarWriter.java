@@ -0,0 +1,229 @@
+package org.yipuran.compress;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.yipuran.file.FileCollection;
+
+/**
+ * 先読みパイプラインによる tar 書込み.
+ * <PRE>
+ * 各 FileCollection の走査を専用の走査スレッド（最大 WALKERS 個）で並列に実行し、走査したファイルの stat と読込み
+ * （PREFETCH_LIMIT 以下のファイルは内容、それより大きいファイルはオープン）を ExecutorService で最大 DEPTH 件先行して行う。
+ * 走査結果のキューは FileCollection ごとに WALK_DEPTH 件までで、走査は書込みを待つので、ファイル数が多くてもメモリは増えない。
+ * 走査スレッドは ExecutorService と別なので、キューが一杯で待つ走査が先読みを止めることはない。
+ * １つの FileCollection の走査は FileCollection#scan の順序どおりに１スレッドで行う。
+ * tar への書込みは呼出しスレッド１つで、FileCollection の順序・走査順のとおりに行うので、
+ * エントリ順序は TarSupport#write と同じになる。
+ * 呼出しスレッドに TarContext がある場合、コピーバッファサイズ以下のファイルはプールのバッファに先読みする。
+ * </PRE>
+ */
+final class PrefetchTarWriter{
+	/** 内容を先読みするファイルサイズの上限 */
+	static final int PREFETCH_LIMIT = 256 * 1024;
+	/** 先読みするエントリ数 */
+	static final int DEPTH = 64;
+	/** FileCollection ごとに走査で先行するファイル数 */
+	static final int WALK_DEPTH = 1024;
+	/** 走査スレッド数の上限 */
+	static final int WALKERS = 4;
+
+	private static final Object END = new Object();
+
+	private PrefetchTarWriter(){}
+
+	/**
+	 * FileCollection の tar 書込み.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 * @param onEntry エントリのヘッダー書込み直後に呼ばれる、null 可
+	 * @param executor 先読みを実行する ExecutorService、終了は呼出し側で行う。
+	 * @throws IOException
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, Collection<String> entries,
+			Consumer<TarArchiveEntry> onEntry, ExecutorService executor) throws IOException{
+		TarSupport.configure(taos);
+		TarContext context = TarContext.current();
+		List<BlockingQueue<Object>> walks = new ArrayList<>();
+		// 走査は FileCollection の順に開始され、書込みも同じ順に読むので、スレッド数を制限してもキューが一杯で止まることはない
+		ExecutorService walkers = Executors.newFixedThreadPool(Math.max(1, Math.min(fileCollections.size(), WALKERS)), r->{
+			Thread t = new Thread(r, "PrefetchTarWriter-walk");
+			t.setDaemon(true);
+			return t;
+		});
+		for(FileCollection fc : fileCollections){
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<>(WALK_DEPTH);
+			walks.add(queue);
+			walkers.execute(()->{
+				Object last = END;
+				try{
+					TarSupport.walk(Collections.singletonList(fc), p, (f, name)->{
+						try{
+							queue.put(new Item(f, name));
+						}catch(InterruptedException ex){
+							Thread.currentThread().interrupt();
+							throw new CancellationException();
+						}
+					});
+				}catch(Throwable ex){
+					last = ex;
+				}
+				try{
+					queue.put(last);
+				}catch(InterruptedException ignore){
+					// 書込みが終了している
+				}
+			});
+		}
+		Deque<Future<Prefetched>> window = new ArrayDeque<>();
+		byte[] buf = TarSupport.buffer();
+		try{
+			for(BlockingQueue<Object> queue : walks){
+				while(true){
+					Object o = queue.poll();
+					if (o==null){
+						if (!window.isEmpty()){
+							put(taos, window.poll(), buf, entries, onEntry);
+							continue;
+						}
+						o = queue.take();
+					}
+					if (o==END) break;
+					if (o instanceof Throwable) throw new ExecutionException((Throwable)o);
+					Item item = (Item)o;
+					window.add(executor.submit(()->prefetch(item, context)));
+					if (window.size() >= DEPTH){
+						put(taos, window.poll(), buf, entries, onEntry);
+					}
+				}
+			}
+			while(!window.isEmpty()){
+				put(taos, window.poll(), buf, entries, onEntry);
+			}
+		}catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause.getMessage(), cause);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while archiving");
+		}finally{
+			TarSupport.release(buf);
+			walkers.shutdownNow();
+			for(Future<Prefetched> f : window){
+				f.cancel(false);
+				if (f.isDone() && !f.isCancelled()){
+					try{
+						f.get().close();
+					}catch(Exception ignore){
+					}
+				}
+			}
+		}
+	}
+
+	private static void put(TarArchiveOutputStream taos, Future<Prefetched> future, byte[] buf, Collection<String> entries,
+			Consumer<TarArchiveEntry> onEntry) throws IOException, ExecutionException, InterruptedException{
+		Prefetched prefetched = future.get();
+		try{
+			TarSupport.putArchiveEntry(taos, prefetched.entry);
+			if (onEntry != null) onEntry.accept(prefetched.entry);
+			if (prefetched.data != null){
+				taos.write(prefetched.data, 0, prefetched.length);
+			}else if(prefetched.in != null){
+				int size = 0;
+				while((size = prefetched.in.read(buf)) > 0){
+					taos.write(buf, 0, size);
+				}
+			}
+			TarSupport.closeArchiveEntry(taos, prefetched.entry);
+			entries.add(prefetched.entry.getName());
+		}finally{
+			prefetched.close();
+		}
+	}
+
+	/**
+	 * ファイル１件の先読み.
+	 * @param item 走査したファイル
+	 * @param context 呼出しスレッドの TarContext、null の場合はファイルサイズの配列に読む。
+	 */
+	private static Prefetched prefetch(Item item, TarContext context) throws IOException{
+		TarArchiveEntry entry = new TarArchiveEntry(item.file, item.name);
+		if (entry.isDirectory()){
+			return new Prefetched(entry, null, 0, null, null);
+		}
+		if (entry.getSize() <= PREFETCH_LIMIT){
+			int size = (int)entry.getSize();
+			boolean pooled = context != null && size <= context.getBufferSize();
+			byte[] data = pooled ? context.buffer() : new byte[size];
+			Prefetched prefetched = new Prefetched(entry, data, size, null, pooled ? context : null);
+			try(InputStream in = TarMonitor.source(new FileInputStream(item.file))){
+				int length = 0;
+				int n = 0;
+				while(length < size && (n = in.read(data, length, size - length)) >= 0){
+					length += n;
+				}
+				if (length < size) throw new EOFException("File shrank while archiving : " + item.file);
+			}catch(IOException | RuntimeException ex){
+				prefetched.close();
+				throw ex;
+			}
+			return prefetched;
+		}
+		return new Prefetched(entry, null, 0, TarMonitor.source(new FileInputStream(item.file)), null);
+	}
+
+	private static final class Item{
+		final File file;
+		final String name;
+		Item(File file, String name){
+			this.file = file;
+			this.name = name;
+		}
+	}
+
+	private static final class Prefetched{
+		final TarArchiveEntry entry;
+		final byte[] data;
+		final int length;
+		final InputStream in;
+		/** data を返す TarContext */
+		final TarContext context;
+		Prefetched(TarArchiveEntry entry, byte[] data, int length, InputStream in, TarContext context){
+			this.entry = entry;
+			this.data = data;
+			this.length = length;
+			this.in = in;
+			this.context = context;
+		}
+		void close() throws IOException{
+			if (context != null) context.release(data);
+			if (in != null) in.close();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.yipuran.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 先読み入力ストリーム.
+ * <PRE>
+ * 元の InputStream を Executor のスレッドで blockSize 単位に読込み、最大 depth ブロックを先読みする。
+ * GzipCompressorInputStream を渡せば、gzip 解凍と tar 解析を別スレッドで並行して実行できる。
+ * ブロックのバッファは使い回し、先読みスレッドで発生した例外は read で呼出し側に通知する。
+ * Executor は先読みを呼出しスレッドとは別のスレッドで実行するものを指定する。
+ * 呼出しスレッドで実行する Executor（Runnable::run、飽和した CallerRunsPolicy など）の場合は、先読みせずに元の InputStream から直接読む。
+ * 先読みが開始される前に close した場合、close は先読みの終了を待たない。
+ * </PRE>
+ */
+public class ReadAheadInputStream extends InputStream{
+	/** デフォルトブロックサイズ */
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+	/** デフォルト先読みブロック数 */
+	public static final int DEFAULT_DEPTH = 4;
+
+	private static final Block EOF = new Block(null, 0);
+
+	private final InputStream in;
+	private final BlockingQueue<Block> filled;
+	private final BlockingQueue<byte[]> free;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile Thread caller;
+	private volatile boolean direct;
+	private final byte[] single = new byte[1];
+	private volatile boolean closed;
+	private volatile Throwable error;
+	private Block current;
+	private int position;
+	private boolean eof;
+
+	/**
+	 * コンストラクタ（デフォルトブロックサイズ、デフォルト先読みブロック数）.
+	 * @param in 元の InputStream
+	 * @param executor 先読みを実行する Executor、呼出しスレッドとは別のスレッドで実行するもの
+	 */
+	public ReadAheadInputStream(InputStream in, Executor executor){
+		this(in, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH, executor);
+	}
+	/**
+	 * コンストラクタ.
+	 * @param in 元の InputStream
+	 * @param blockSize 先読みブロックサイズ
+	 * @param depth 先読みブロック数
+	 * @param executor 先読みを実行する Executor、呼出しスレッドとは別のスレッドで実行するもの
+	 */
+	public ReadAheadInputStream(InputStream in, int blockSize, int depth, Executor executor){
+		if (blockSize < 1) throw new IllegalArgumentException("blockSize must be positive : " + blockSize);
+		if (depth < 1) throw new IllegalArgumentException("depth must be positive : " + depth);
+		this.in = in;
+		this.filled = new ArrayBlockingQueue<>(depth + 1);
+		this.free = new ArrayBlockingQueue<>(depth);
+		for(int i=0; i < depth; i++){
+			free.add(new byte[blockSize]);
+		}
+		caller = Thread.currentThread();
+		try{
+			executor.execute(this::fill);
+		}finally{
+			caller = null;
+		}
+	}
+
+	private void fill(){
+		if (Thread.currentThread()==caller){
+			// execute の中で呼出しスレッドが実行した場合、先読みすると free.take() で停止するので直接読む
+			direct = true;
+			return;
+		}
+		if (!started.compareAndSet(false, true)) return;
+		try{
+			while(!closed){
+				byte[] buf = free.take();
+				if (closed) break;
+				int length = 0;
+				int n = 0;
+				while(length < buf.length && (n = in.read(buf, length, buf.length - length)) >= 0){
+					length += n;
+				}
+				if (length > 0) filled.put(new Block(buf, length));
+				if (n < 0) break;
+			}
+		}catch(Throwable ex){
+			error = ex;
+		}finally{
+			filled.offer(EOF);
+			done.countDown();
+		}
+	}
+
+	@Override
+	public int read() throws IOException{
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException{
+		if (closed) throw new IOException("Stream closed");
+		if (direct) return in.read(b, off, len);
+		if (len==0) return 0;
+		if (!nextBlock()) return -1;
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current.buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+	@Override
+	public long skip(long n) throws IOException{
+		if (closed) throw new IOException("Stream closed");
+		if (direct) return in.skip(n);
+		long skipped = 0;
+		while(skipped < n && nextBlock()){
+			int k = (int)Math.min(n - skipped, current.length - position);
+			position += k;
+			skipped += k;
+		}
+		return skipped;
+	}
+	@Override
+	public int available() throws IOException{
+		if (direct) return in.available();
+		return current==null ? 0 : current.length - position;
+	}
+	private boolean nextBlock() throws IOException{
+		if (current != null && position < current.length) return true;
+		if (eof) return false;
+		if (current != null){
+			free.offer(current.buffer);
+			current = null;
+		}
+		try{
+			Block block = filled.take();
+			if (block==EOF){
+				eof = true;
+				Throwable ex = error;
+				if (ex instanceof IOException) throw (IOException)ex;
+				if (ex != null) throw new IOException(ex.getMessage(), ex);
+				return false;
+			}
+			current = block;
+			position = 0;
+			return true;
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for read-ahead");
+		}
+	}
+	/**
+	 * 先読みを停止して元の InputStream を閉じる.
+	 */
+	@Override
+	public void close() throws IOException{
+		if (closed) return;
+		closed = true;
+		Block block;
+		while((block = filled.poll()) != null){
+			if (block != EOF) free.offer(block.buffer);
+		}
+		free.offer(new byte[0]);
+		try{
+			// 先読みが開始されていなければ、以後開始させずに待たない
+			if (!started.compareAndSet(false, true)) done.await();
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}finally{
+			in.close();
+		}
+	}
+
+	private static final class Block{
+		final byte[] buffer;
+		final int length;
+		Block(byte[] buffer, int length){
+			this.buffer = buffer;
+			this.length = length;
+		}
+	}
+}
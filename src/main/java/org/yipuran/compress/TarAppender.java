@@ -0,0 +1,171 @@
+package org.yipuran.compress;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveSparseEntry;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * 既存アーカイブへのエントリ追加.
+ * <PRE>
+ * tar は、ヘッダーだけを位置指定で読んで最後のエントリの終端を求め、終端マーカーの位置から追加エントリを上書きする。
+ * tar.gz は、追加エントリと終端マーカーの tar を新しい gzip メンバーとしてファイルの後に書込む。
+ * どちらも既存のエントリのデータは読まない。書込みに失敗した場合は追加前の内容に戻す。
+ * </PRE>
+ */
+final class TarAppender{
+	private static final int RECORD_SIZE = TarConstants.DEFAULT_RCDSIZE;
+
+	private TarAppender(){}
+
+	/**
+	 * 追加エントリの書込み.
+	 */
+	@FunctionalInterface
+	interface Writer{
+		void write(TarArchiveOutputStream taos) throws IOException;
+	}
+
+	/**
+	 * tar への追加.
+	 * @param tarPath tar ファイルパス、存在しない場合は新規作成
+	 * @param writer 追加エントリの書込み
+	 * @throws IOException
+	 */
+	static void appendTar(String tarPath, Writer writer) throws IOException{
+		try(FileChannel channel = FileChannel.open(Paths.get(tarPath), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			long end = endOfArchive(channel);
+			channel.truncate(end);
+			channel.position(end);
+			// close で channel を閉じないようにして、失敗時に戻せるようにする
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(new BufferedOutputStream(
+					CloseShieldOutputStream.wrap(Channels.newOutputStream(channel)), TarSupport.BUFFER_SIZE));
+			try{
+				writer.write(taos);
+				taos.close();
+			}catch(IOException | RuntimeException ex){
+				// 追加前のエントリと終端マーカーに戻す
+				channel.truncate(end);
+				channel.write(ByteBuffer.allocate(RECORD_SIZE * 2), end);
+				throw ex;
+			}
+		}
+	}
+	/**
+	 * tar.gz への追加.
+	 * @param targzPath tar.gz ファイルパス、存在しない場合は新規作成
+	 * @param writer 追加エントリの書込み
+	 * @throws IOException
+	 */
+	static void appendTarGz(String targzPath, Writer writer) throws IOException{
+		try(FileChannel channel = FileChannel.open(Paths.get(targzPath), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			long end = channel.size();
+			if (end > 0){
+				ByteBuffer magic = ByteBuffer.allocate(2);
+				channel.read(magic, 0);
+				if (magic.get(0) != (byte)0x1f || magic.get(1) != (byte)0x8b) throw new IOException("Not a gzip file : " + targzPath);
+			}
+			channel.position(end);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarSupport.gzip(
+					new BufferedOutputStream(CloseShieldOutputStream.wrap(Channels.newOutputStream(channel)), TarSupport.BUFFER_SIZE)));
+			try{
+				writer.write(taos);
+				taos.close();
+			}catch(IOException | RuntimeException ex){
+				channel.truncate(end);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * tar の最後のエントリの終端位置.
+	 * <PRE>
+	 * ヘッダーとメタデータ（PAX 拡張ヘッダー、GNU long name、旧 GNU sparse 拡張ヘッダー）だけを読み、
+	 * エントリのデータは位置を進めて読み飛ばす。
+	 * </PRE>
+	 * @param channel tar の FileChannel
+	 * @return 終端マーカーの位置、終端マーカーが無い場合はファイルの終わり
+	 * @throws IOException tar でない場合、途中で切れている場合
+	 */
+	static long endOfArchive(FileChannel channel) throws IOException{
+		long size = channel.size();
+		byte[] header = new byte[RECORD_SIZE];
+		long position = 0;
+		long paxSize = -1;
+		while(position + RECORD_SIZE <= size){
+			read(channel, header, position);
+			if (isZero(header)) return position;
+			if (!TarUtils.verifyCheckSum(header)) throw new IOException("Invalid tar header at " + position);
+			TarArchiveEntry entry;
+			try{
+				entry = new TarArchiveEntry(header);
+			}catch(IllegalArgumentException ex){
+				throw new IOException("Invalid tar header at " + position, ex);
+			}
+			position += RECORD_SIZE;
+			if (entry.isGNUSparse() && entry.isExtended()){
+				byte[] ext = new byte[RECORD_SIZE];
+				do{
+					read(channel, ext, position);
+					position += RECORD_SIZE;
+				}while(new TarArchiveSparseEntry(ext).isExtended());
+			}
+			long dataSize = entry.getSize();
+			if (entry.isPaxHeader()){
+				paxSize = paxSize(channel, position, dataSize);
+			}else if(!entry.isGlobalPaxHeader() && !entry.isGNULongNameEntry() && !entry.isGNULongLinkEntry()){
+				if (paxSize >= 0) dataSize = paxSize;
+				paxSize = -1;
+			}
+			position += (dataSize + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+		}
+		if (position > size) throw new IOException("Truncated tar archive");
+		return position;
+	}
+	private static long paxSize(FileChannel channel, long position, long length) throws IOException{
+		if (length > Integer.MAX_VALUE) throw new IOException("PAX header too large : " + length);
+		byte[] b = new byte[(int)length];
+		read(channel, b, position);
+		long size = -1;
+		for(int i=0; i < b.length;){
+			int sp = i;
+			while(sp < b.length && b[sp] != ' ') sp++;
+			int len;
+			try{
+				len = Integer.parseInt(new String(b, i, sp - i, StandardCharsets.US_ASCII));
+			}catch(NumberFormatException ex){
+				break;
+			}
+			if (len <= sp - i + 1 || i + len > b.length) break;
+			// "長さ キー=値\n"
+			String kv = new String(b, sp + 1, i + len - sp - 2, StandardCharsets.UTF_8);
+			if (kv.startsWith("size=")) size = Long.parseLong(kv.substring(5));
+			i += len;
+		}
+		return size;
+	}
+	private static void read(FileChannel channel, byte[] b, long position) throws IOException{
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		while(bb.hasRemaining()){
+			if (channel.read(bb, position + bb.position()) < 0) throw new IOException("Truncated tar archive");
+		}
+	}
+	private static boolean isZero(byte[] b){
+		for(byte v : b){
+			if (v != 0) return false;
+		}
+		return true;
+	}
+}
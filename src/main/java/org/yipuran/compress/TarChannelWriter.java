@@ -0,0 +1,146 @@
+package org.yipuran.compress;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipEncoding;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+
+/**
+ * FileChannel による tar 書込み.
+ * <PRE>
+ * ヘッダーと小さいファイルは direct ByteBuffer にまとめてから書込み、
+ * TRANSFER_THRESHOLD 以上のファイルは FileChannel#transferTo でヒープを経由せずに転送する。
+ * 長いエントリ名は TarArchiveOutputStream の LONGFILE_GNU と同じ ././@LongLink で書込み、
+ * 8GB を超えるサイズは star/GNU のバイナリ表記で書込む。
+ * ストリームを経由しないので、TarMonitor へはエントリの開始・終了と、読込み・書込みのバイト数を直接通知する。
+ * </PRE>
+ */
+final class TarChannelWriter implements Closeable{
+	/** transferTo で転送するファイルサイズの下限 */
+	static final long TRANSFER_THRESHOLD = 64 * 1024;
+	private static final int RECORD_SIZE = TarConstants.DEFAULT_RCDSIZE;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final FileChannel out;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte[] header = new byte[RECORD_SIZE];
+	private final byte[] zeros = new byte[RECORD_SIZE];
+	private final ZipEncoding encoding = ZipEncodingHelper.getZipEncoding((String)null);
+
+	/**
+	 * コンストラクタ.
+	 * @param tarPath 作成する tar ファイルパス
+	 * @throws IOException
+	 */
+	TarChannelWriter(String tarPath) throws IOException{
+		out = FileChannel.open(Paths.get(tarPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * ファイル、ディレクトリの書込み.
+	 * @param file ファイル
+	 * @param name tarエントリ名
+	 * @return 書込んだ TarArchiveEntry
+	 * @throws IOException
+	 */
+	TarArchiveEntry putFile(File file, String name) throws IOException{
+		TarArchiveEntry entry = new TarArchiveEntry(file, name);
+		TarMonitor.entryStarted(entry);
+		ByteBuffer encodedName = encoding.encode(entry.getName());
+		int length = encodedName.limit() - encodedName.position();
+		if (length >= TarConstants.NAMELEN){
+			TarArchiveEntry longLink = new TarArchiveEntry(TarConstants.GNU_LONGLINK, TarConstants.LF_GNUTYPE_LONGNAME);
+			longLink.setSize(length + 1L);
+			longLink.setModTime(entry.getModTime());
+			putHeader(longLink);
+			put(encodedName.array(), encodedName.arrayOffset() + encodedName.position(), length);
+			put(zeros, 0, 1);
+			pad(length + 1L);
+		}
+		putHeader(entry);
+		if (!entry.isDirectory()){
+			putData(file, entry.getSize());
+		}
+		TarMonitor.entryFinished(entry);
+		return entry;
+	}
+
+	private void putHeader(TarArchiveEntry entry) throws IOException{
+		entry.writeEntryHeader(header, encoding, true);
+		put(header, 0, RECORD_SIZE);
+	}
+	private void putData(File file, long size) throws IOException{
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			long position = 0;
+			if (size < TRANSFER_THRESHOLD){
+				while(position < size){
+					if (!buffer.hasRemaining()) flush();
+					int limit = buffer.limit();
+					buffer.limit((int)Math.min(limit, buffer.position() + size - position));
+					int n = in.read(buffer, position);
+					buffer.limit(limit);
+					if (n < 0) throw new EOFException("File shrank while archiving : " + file);
+					TarMonitor.rawBytes(n);
+					position += n;
+				}
+			}else{
+				flush();
+				while(position < size){
+					long n = in.transferTo(position, size - position, out);
+					if (n <= 0) throw new EOFException("File shrank while archiving : " + file);
+					TarMonitor.rawBytes(n);
+					TarMonitor.archiveBytes(n);
+					position += n;
+				}
+			}
+		}
+		pad(size);
+	}
+	private void pad(long size) throws IOException{
+		int remainder = (int)(size % RECORD_SIZE);
+		if (remainder > 0){
+			put(zeros, 0, RECORD_SIZE - remainder);
+		}
+	}
+	private void put(byte[] b, int off, int len) throws IOException{
+		while(len > 0){
+			if (!buffer.hasRemaining()) flush();
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+	private void flush() throws IOException{
+		buffer.flip();
+		int n = buffer.remaining();
+		while(buffer.hasRemaining()){
+			out.write(buffer);
+		}
+		buffer.clear();
+		if (n > 0) TarMonitor.archiveBytes(n);
+	}
+
+	/**
+	 * 終端レコードを書込んで閉じる.
+	 */
+	@Override
+	public void close() throws IOException{
+		try{
+			put(zeros, 0, RECORD_SIZE);
+			put(zeros, 0, RECORD_SIZE);
+			flush();
+		}finally{
+			out.close();
+		}
+	}
+}
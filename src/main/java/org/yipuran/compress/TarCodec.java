@@ -0,0 +1,222 @@
+package org.yipuran.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * tar 圧縮コーデック.
+ * <PRE>
+ * TarCodecProcessor で tar ストリームを圧縮／解凍する方式。
+ * 静的メソッドで各方式のインスタンスを取得する。
+ *     none()   非圧縮               .tar
+ *     gzip()   gzip                 .tar.gz  (.tgz)
+ *     bzip2()  bzip2                .tar.bz2 (.tbz2)
+ *     xz()     xz                   .tar.xz  (.txz)     org.tukaani:xz が必要
+ *     lz4()    LZ4 フレーム形式     .tar.lz4
+ *     zstd()   Zstandard            .tar.zst (.tzst)    com.github.luben:zstd-jni が必要
+ * 解凍時は of(path) で拡張子から、detect(in) で先頭のマジックバイトから判定できる。
+ * xz, zstd はライブラリが無い場合、xz()／zstd() と、その拡張子・形式の of／detect で IllegalStateException になる。
+ * ライブラリが無いコーデックは defaults に含まれない。
+ * </PRE>
+ */
+public interface TarCodec{
+	/**
+	 * @return コーデック名、gzip, bzip2, xz, lz4, zstd, none
+	 */
+	String getName();
+	/**
+	 * @return tar ファイルの拡張子、例 .tar.gz
+	 */
+	String getExtension();
+	/**
+	 * ファイル名の判定.
+	 * @param path ファイルパス
+	 * @return このコーデックの拡張子（別名を含む）の場合 true
+	 */
+	boolean matches(String path);
+	/**
+	 * マジックバイトの判定.
+	 * @param signature ストリーム先頭のバイト
+	 * @param length signature の有効長
+	 * @return このコーデックの形式の場合 true
+	 */
+	boolean matches(byte[] signature, int length);
+	/**
+	 * 圧縮ストリーム生成.
+	 * @param out 出力先 OutputStream、返す OutputStream の close で閉じる。
+	 * @return 圧縮する OutputStream
+	 * @throws IOException
+	 */
+	OutputStream compress(OutputStream out) throws IOException;
+	/**
+	 * 解凍ストリーム生成.
+	 * 連結された複数のフレーム（gzip メンバー等）は続けて解凍する。
+	 * @param in 入力元 InputStream、返す InputStream の close で閉じる。
+	 * @return 解凍する InputStream
+	 * @throws IOException
+	 */
+	InputStream decompress(InputStream in) throws IOException;
+
+	/**
+	 * 非圧縮.
+	 * @return TarCodec
+	 */
+	public static TarCodec none(){
+		return TarCodecs.NONE;
+	}
+	/**
+	 * gzip（デフォルト圧縮レベル）.
+	 * @return TarCodec
+	 */
+	public static TarCodec gzip(){
+		return gzip(-1);
+	}
+	/**
+	 * gzip.
+	 * deflate のウィンドウは 32KB 固定のため、指定できるのは圧縮レベルのみ。
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @return TarCodec
+	 */
+	public static TarCodec gzip(int level){
+		return new TarCodecs.Gzip(level, 1);
+	}
+	/**
+	 * gzip（並列圧縮）.
+	 * ParallelGzipOutputStream で圧縮する。
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param threads 圧縮スレッド数
+	 * @return TarCodec
+	 */
+	public static TarCodec gzip(int level, int threads){
+		return new TarCodecs.Gzip(level, threads);
+	}
+	/**
+	 * bzip2（ブロックサイズ 900KB）.
+	 * @return TarCodec
+	 */
+	public static TarCodec bzip2(){
+		return bzip2(9);
+	}
+	/**
+	 * bzip2.
+	 * @param blockSize ブロックサイズ 1～9（×100KB）
+	 * @return TarCodec
+	 */
+	public static TarCodec bzip2(int blockSize){
+		return new TarCodecs.BZip2(blockSize);
+	}
+	/**
+	 * xz（プリセット 6）.
+	 * @return TarCodec
+	 * @throws IllegalStateException org.tukaani:xz が無い場合
+	 */
+	public static TarCodec xz(){
+		return xz(6, 0);
+	}
+	/**
+	 * xz.
+	 * @param preset プリセット 0～9
+	 * @param dictSize 辞書サイズ（バイト）、0 の場合はプリセットの値
+	 * @return TarCodec
+	 * @throws IllegalStateException org.tukaani:xz が無い場合
+	 */
+	public static TarCodec xz(int preset, int dictSize){
+		return new TarCodecs.Xz(preset, dictSize);
+	}
+	/**
+	 * LZ4 フレーム形式（ブロックサイズ 4MB、速度優先）.
+	 * @return TarCodec
+	 */
+	public static TarCodec lz4(){
+		return lz4(4 * 1024 * 1024, false);
+	}
+	/**
+	 * LZ4 フレーム形式.
+	 * LZ4 のウィンドウは 64KB 固定で、ブロック間の参照は行わない。
+	 * @param blockSize ブロックサイズ、64KB, 256KB, 1MB, 4MB のいずれか
+	 * @param highCompression true=圧縮率優先、false=速度優先
+	 * @return TarCodec
+	 */
+	public static TarCodec lz4(int blockSize, boolean highCompression){
+		return new TarCodecs.Lz4(blockSize, highCompression);
+	}
+	/**
+	 * Zstandard（レベル 3）.
+	 * @return TarCodec
+	 * @throws IllegalStateException com.github.luben:zstd-jni が無い場合
+	 */
+	public static TarCodec zstd(){
+		return zstd(3, 0, 0);
+	}
+	/**
+	 * Zstandard.
+	 * @param level 圧縮レベル 1～22
+	 * @return TarCodec
+	 * @throws IllegalStateException com.github.luben:zstd-jni が無い場合
+	 */
+	public static TarCodec zstd(int level){
+		return zstd(level, 0, 0);
+	}
+	/**
+	 * Zstandard（ロングモード、マルチスレッド）.
+	 * @param level 圧縮レベル 1～22
+	 * @param windowLog 0 以外の場合、2^windowLog バイトのウィンドウでロングモードを有効にする（10～31）
+	 * @param workers 0 以外の場合、zstd 内部の圧縮スレッド数
+	 * @return TarCodec
+	 * @throws IllegalStateException com.github.luben:zstd-jni が無い場合
+	 */
+	public static TarCodec zstd(int level, int windowLog, int workers){
+		return new TarCodecs.Zstd(level, windowLog, workers);
+	}
+
+	/**
+	 * 標準のコーデック.
+	 * @return gzip, bzip2, xz, lz4, zstd のデフォルト設定、xz, zstd はライブラリがある場合だけ
+	 */
+	public static List<TarCodec> defaults(){
+		return TarCodecs.defaults();
+	}
+	/**
+	 * 拡張子による判定.
+	 * @param path ファイルパス
+	 * @return TarCodec、.tar の場合は none()、該当しない場合は null
+	 * @throws IllegalStateException xz, zstd の拡張子で、ライブラリが無い場合
+	 */
+	public static TarCodec of(String path){
+		String name = path.toLowerCase(Locale.ROOT);
+		for(TarCodec codec : defaults()){
+			if (codec.matches(name)) return codec;
+		}
+		TarCodecs.requireAvailable(name);
+		return none().matches(name) ? none() : null;
+	}
+	/**
+	 * マジックバイトによる判定.
+	 * @param in mark をサポートする InputStream、読込み位置は変わらない。
+	 * @return TarCodec、該当しない場合は none()
+	 * @throws IOException
+	 * @throws IllegalStateException xz, zstd の形式で、ライブラリが無い場合
+	 */
+	public static TarCodec detect(InputStream in) throws IOException{
+		if (!in.markSupported()) throw new IllegalArgumentException("InputStream must support mark");
+		byte[] signature = new byte[12];
+		in.mark(signature.length);
+		int length = 0;
+		try{
+			int n = 0;
+			while(length < signature.length && (n = in.read(signature, length, signature.length - length)) > 0){
+				length += n;
+			}
+		}finally{
+			in.reset();
+		}
+		for(TarCodec codec : defaults()){
+			if (codec.matches(signature, length)) return codec;
+		}
+		TarCodecs.requireAvailable(signature, length);
+		return none();
+	}
+}
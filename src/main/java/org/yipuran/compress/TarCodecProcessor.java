@@ -0,0 +1,150 @@
+package org.yipuran.compress;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.yipuran.file.FileCollection;
+
+/**
+ * 圧縮方式指定 tar 圧縮／解凍プロセッサ.
+ * <PRE>
+ * TarGzipProcessor と同じ使い方で、圧縮方式を TarCodec で指定する。
+ * （規則）
+ *     TarCodec#getExtension のファイル名拡張子、.tar.gz .tar.bz2 .tar.xz .tar.lz4 .tar.zst
+ * （圧縮）
+ *    TarCodecProcessor processor = ()->Arrays.asList(FileCollection.of(targetPath));
+ *    Collection<String> entries = processor.compress("/work/logs.tar.zst", TarCodec.zstd(19, 27, 4));
+ * （展開）
+ * decompress(String path, String dirPath) は先頭のマジックバイトで圧縮方式を判定するので、
+ * 拡張子に依らず展開できる。
+ * </PRE>
+ */
+public interface TarCodecProcessor extends Supplier<Collection<FileCollection>>{
+
+	/**
+	 * 圧縮実行（拡張子で圧縮方式を決定）.
+	 * @param path 作成するファイルパス、拡張子は TarCodec#of で判定できること
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String path){
+		TarCodec codec = TarCodec.of(path);
+		if (codec==null) throw new IllegalArgumentException("Unknown tar extension : " + path);
+		return compress(path, codec, null);
+	}
+	/**
+	 * 圧縮実行.
+	 * @param path 作成するファイルパス
+	 * @param codec 圧縮方式
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String path, TarCodec codec){
+		return compress(path, codec, null);
+	}
+	/**
+	 * 圧縮実行（対象制限）.
+	 * @param path 作成するファイルパス
+	 * @param codec 圧縮方式
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String path, TarCodec codec, Predicate<File> p){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream fos = new FileOutputStream(path);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream cout = codec.compress(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(cout))
+		){
+			TarSupport.write(taos, get(), p, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * 展開（圧縮方式を自動判定）.
+	 * @param path 圧縮 tar ファイルパス
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(String path, String dirPath){
+		return decompress(path, dirPath, null);
+	}
+	/**
+	 * 展開.
+	 * @param path 圧縮 tar ファイルパス
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param codec 圧縮方式、null の場合は自動判定
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(String path, String dirPath, TarCodec codec){
+		Collection<String> entries = new ArrayList<>();
+		try(TarArchiveInputStream tais = TarSupport.openTar(path, codec)){
+			TarSupport.extract(tais, dirPath, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * エントリ名コレクション（圧縮方式を自動判定）.
+	 * @param path 圧縮 tar ファイルパス
+	 * @return Collection<String>
+	 */
+	public static Collection<String> viewPath(String path){
+		Collection<String> entries = new ArrayList<>();
+		try(TarArchiveInputStream tais = TarSupport.openTar(path, null)){
+			ArchiveEntry entry = null;
+			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryListed(entry);
+				entries.add(entry.getName());
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * Predicate→ArchiveEntryコレクション（圧縮方式を自動判定）.
+	 * @param path 圧縮 tar ファイルパス
+	 * @param p ファイルのArchiveEntry の Predicate
+	 * @return Collection<ArchiveEntry>
+	 */
+	public static Collection<ArchiveEntry> entries(String path, Predicate<ArchiveEntry> p){
+		Collection<ArchiveEntry> entries = new ArrayList<>();
+		try(TarArchiveInputStream tais = TarSupport.openTar(path, null)){
+			ArchiveEntry entry = null;
+			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryListed(entry);
+				if (p.test(entry)) entries.add(entry);
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * エントリの Stream（圧縮方式を自動判定）.
+	 * 使用後は Stream を close すること。
+	 * @param path 圧縮 tar ファイルパス
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(String path){
+		try{
+			return TarSupport.stream(TarSupport.openTar(path, null));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package org.yipuran.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+/**
+ * TarCodec 実装.
+ * <PRE>
+ * org.tukaani:xz、com.github.luben:zstd-jni は optional の依存なので、それらのクラスは XzStreams、ZstdStreams だけが参照する。
+ * ライブラリが無くても gzip, bzip2, lz4 は使用でき、defaults は使用できるコーデックだけを返す。
+ * </PRE>
+ */
+final class TarCodecs{
+	static final TarCodec NONE = new Base("none", ".tar"){
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return false;
+		}
+		@Override
+		public OutputStream compress(OutputStream out){
+			return out;
+		}
+		@Override
+		public InputStream decompress(InputStream in){
+			return in;
+		}
+	};
+
+	private TarCodecs(){}
+
+	static List<TarCodec> defaults(){
+		return Holder.DEFAULTS;
+	}
+	private static final class Holder{
+		static final List<TarCodec> DEFAULTS = Collections.unmodifiableList(available());
+	}
+	private static List<TarCodec> available(){
+		List<TarCodec> list = new ArrayList<>();
+		list.add(TarCodec.gzip());
+		list.add(TarCodec.bzip2());
+		if (XZUtils.isXZCompressionAvailable()) list.add(TarCodec.xz());
+		list.add(TarCodec.lz4());
+		if (ZstdUtils.isZstdCompressionAvailable()) list.add(TarCodec.zstd());
+		return list;
+	}
+	/**
+	 * ライブラリが無いコーデックの拡張子の検査.
+	 * @param path 小文字のファイルパス
+	 * @throws IllegalStateException xz, zstd の拡張子で、ライブラリが無い場合
+	 */
+	static void requireAvailable(String path){
+		if (Arrays.stream(Xz.EXTENSIONS).anyMatch(path::endsWith)) Xz.require();
+		if (Arrays.stream(Zstd.EXTENSIONS).anyMatch(path::endsWith)) Zstd.require();
+	}
+	/**
+	 * ライブラリが無いコーデックのマジックバイトの検査.
+	 * @param signature ストリーム先頭のバイト
+	 * @param length signature の有効長
+	 * @throws IllegalStateException xz, zstd の形式で、ライブラリが無い場合
+	 */
+	static void requireAvailable(byte[] signature, int length){
+		if (XZUtils.matches(signature, length)) Xz.require();
+		if (ZstdUtils.matches(signature, length)) Zstd.require();
+	}
+
+	private static abstract class Base implements TarCodec{
+		private final String name;
+		private final List<String> extensions;
+		Base(String name, String... extensions){
+			this.name = name;
+			this.extensions = Arrays.asList(extensions);
+		}
+		@Override
+		public String getName(){
+			return name;
+		}
+		@Override
+		public String getExtension(){
+			return extensions.get(0);
+		}
+		@Override
+		public boolean matches(String path){
+			String s = path.toLowerCase(Locale.ROOT);
+			return extensions.stream().anyMatch(s::endsWith);
+		}
+		@Override
+		public String toString(){
+			return name;
+		}
+	}
+
+	static final class Gzip extends Base{
+		private final int level;
+		private final int threads;
+		Gzip(int level, int threads){
+			super("gzip", ".tar.gz", ".tgz");
+			if (level < -1 || level > 9) throw new IllegalArgumentException("Invalid compression level : " + level);
+			if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+			this.level = level;
+			this.threads = threads;
+		}
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return GzipCompressorInputStream.matches(signature, length);
+		}
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException{
+			if (threads > 1){
+				return new ParallelGzipOutputStream(out, level, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, threads);
+			}
+			GzipParameters parameters = new GzipParameters();
+			parameters.setCompressionLevel(level);
+			return new GzipCompressorOutputStream(out, parameters);
+		}
+		@Override
+		public InputStream decompress(InputStream in) throws IOException{
+			return new GzipCompressorInputStream(in, true);
+		}
+	}
+
+	static final class BZip2 extends Base{
+		private final int blockSize;
+		BZip2(int blockSize){
+			super("bzip2", ".tar.bz2", ".tbz2", ".tbz");
+			if (blockSize < BZip2CompressorOutputStream.MIN_BLOCKSIZE || blockSize > BZip2CompressorOutputStream.MAX_BLOCKSIZE)
+				throw new IllegalArgumentException("Invalid block size : " + blockSize);
+			this.blockSize = blockSize;
+		}
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return BZip2CompressorInputStream.matches(signature, length);
+		}
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException{
+			return new BZip2CompressorOutputStream(out, blockSize);
+		}
+		@Override
+		public InputStream decompress(InputStream in) throws IOException{
+			return new BZip2CompressorInputStream(in, true);
+		}
+	}
+
+	static final class Xz extends Base{
+		static final String[] EXTENSIONS = { ".tar.xz", ".txz" };
+		private final int preset;
+		private final int dictSize;
+		Xz(int preset, int dictSize){
+			super("xz", EXTENSIONS);
+			require();
+			if (preset < 0 || preset > 9) throw new IllegalArgumentException("Invalid preset : " + preset);
+			if (dictSize < 0) throw new IllegalArgumentException("Invalid dictionary size : " + dictSize);
+			this.preset = preset;
+			this.dictSize = dictSize;
+		}
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return XZUtils.matches(signature, length);
+		}
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException{
+			return XzStreams.compress(out, preset, dictSize);
+		}
+		@Override
+		public InputStream decompress(InputStream in) throws IOException{
+			return XzStreams.decompress(in);
+		}
+		static void require(){
+			if (!XZUtils.isXZCompressionAvailable())
+				throw new IllegalStateException("xz requires org.tukaani:xz on the classpath");
+		}
+	}
+	/** org.tukaani:xz を参照するクラス、xz の圧縮／解凍で初めてロードする。 */
+	private static final class XzStreams{
+		static OutputStream compress(OutputStream out, int preset, int dictSize) throws IOException{
+			org.tukaani.xz.LZMA2Options options = new org.tukaani.xz.LZMA2Options(preset);
+			if (dictSize > 0) options.setDictSize(dictSize);
+			return new org.tukaani.xz.XZOutputStream(out, options);
+		}
+		static InputStream decompress(InputStream in) throws IOException{
+			return new XZCompressorInputStream(in, true);
+		}
+	}
+
+	static final class Lz4 extends Base{
+		private final FramedLZ4CompressorOutputStream.BlockSize blockSize;
+		private final boolean highCompression;
+		Lz4(int blockSize, boolean highCompression){
+			super("lz4", ".tar.lz4");
+			switch(blockSize){
+			case 64 * 1024:
+				this.blockSize = FramedLZ4CompressorOutputStream.BlockSize.K64;
+				break;
+			case 256 * 1024:
+				this.blockSize = FramedLZ4CompressorOutputStream.BlockSize.K256;
+				break;
+			case 1024 * 1024:
+				this.blockSize = FramedLZ4CompressorOutputStream.BlockSize.M1;
+				break;
+			case 4 * 1024 * 1024:
+				this.blockSize = FramedLZ4CompressorOutputStream.BlockSize.M4;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid block size : " + blockSize);
+			}
+			this.highCompression = highCompression;
+		}
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return FramedLZ4CompressorInputStream.matches(signature, length);
+		}
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException{
+			org.apache.commons.compress.compressors.lz77support.Parameters.Builder builder = BlockLZ4CompressorOutputStream.createParameterBuilder();
+			builder = highCompression ? builder.tunedForCompressionRatio() : builder.tunedForSpeed();
+			return new FramedLZ4CompressorOutputStream(out, new FramedLZ4CompressorOutputStream.Parameters(blockSize, true, false, false, builder.build()));
+		}
+		@Override
+		public InputStream decompress(InputStream in) throws IOException{
+			return new FramedLZ4CompressorInputStream(in, true);
+		}
+	}
+
+	static final class Zstd extends Base{
+		static final String[] EXTENSIONS = { ".tar.zst", ".tzst", ".tar.zstd" };
+		/** 解凍で許容する最大ウィンドウ */
+		static final int WINDOW_LOG_MAX = 31;
+		private final int level;
+		private final int windowLog;
+		private final int workers;
+		Zstd(int level, int windowLog, int workers){
+			super("zstd", EXTENSIONS);
+			require();
+			if (level < 1 || level > 22) throw new IllegalArgumentException("Invalid compression level : " + level);
+			if (windowLog != 0 && (windowLog < 10 || windowLog > WINDOW_LOG_MAX))
+				throw new IllegalArgumentException("Invalid window log : " + windowLog);
+			if (workers < 0) throw new IllegalArgumentException("Invalid workers : " + workers);
+			this.level = level;
+			this.windowLog = windowLog;
+			this.workers = workers;
+		}
+		@Override
+		public boolean matches(byte[] signature, int length){
+			return ZstdUtils.matches(signature, length);
+		}
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException{
+			return ZstdStreams.compress(out, level, windowLog, workers);
+		}
+		@Override
+		public InputStream decompress(InputStream in) throws IOException{
+			return ZstdStreams.decompress(in);
+		}
+		static void require(){
+			if (!ZstdUtils.isZstdCompressionAvailable())
+				throw new IllegalStateException("zstd requires com.github.luben:zstd-jni on the classpath");
+		}
+	}
+	/** com.github.luben:zstd-jni を参照するクラス、zstd の圧縮／解凍で初めてロードする。 */
+	private static final class ZstdStreams{
+		static OutputStream compress(OutputStream out, int level, int windowLog, int workers) throws IOException{
+			com.github.luben.zstd.ZstdOutputStream zout = new com.github.luben.zstd.ZstdOutputStream(out);
+			try{
+				zout.setLevel(level);
+				zout.setChecksum(true);
+				if (windowLog > 0) zout.setLong(windowLog);
+				if (workers > 0) zout.setWorkers(workers);
+			}catch(IOException | RuntimeException ex){
+				zout.close();
+				throw ex;
+			}
+			return zout;
+		}
+		static InputStream decompress(InputStream in) throws IOException{
+			com.github.luben.zstd.ZstdInputStream zin = new com.github.luben.zstd.ZstdInputStream(in);
+			zin.setLongMax(Zstd.WINDOW_LOG_MAX);
+			return zin;
+		}
+	}
+}
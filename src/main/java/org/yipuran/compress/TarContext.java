@@ -0,0 +1,161 @@
+package org.yipuran.compress;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 圧縮・展開の処理コンテキスト.
+ * <PRE>
+ * コピーバッファと、gzip の Deflater／Inflater をプールして、処理をまたいで再利用する。
+ * call／run で実行する処理の中で、実行スレッドから呼ぶ TarProcessor／TarGzipProcessor の処理がプールを使用する。
+ * 小さいアーカイブを大量に処理する場合に、処理ごとのバッファ確保と、Deflater／Inflater のネイティブメモリの確保・解放をなくす。
+ * 複数のスレッドから同時に使用できる。処理の中で別のスレッド（先読み、並列圧縮など）が使うバッファは、プールの対象外。
+ * 例）
+ *    TarContext context = TarContext.of().bufferSize(128 * 1024);
+ *    ...
+ *    Collection<String> entries = context.call(()->processor.compress(targzPath));
+ *    context.run(()->TarGzipProcessor.decompress(targzPath, dirPath));
+ *    ...
+ *    context.close();
+ * </PRE>
+ */
+public final class TarContext implements Closeable{
+	private static final ThreadLocal<TarContext> CURRENT = new ThreadLocal<>();
+	private final int bufferSize;
+	private final Deque<byte[]> buffers = new ArrayDeque<>();
+	private final Deque<Deflater> deflaters = new ArrayDeque<>();
+	private final Deque<Inflater> inflaters = new ArrayDeque<>();
+	private boolean closed;
+
+	private TarContext(int bufferSize){
+		this.bufferSize = bufferSize;
+	}
+	/**
+	 * TarContext 生成.
+	 * コピーバッファサイズは 64KB、bufferSize で変更する。
+	 * @return TarContext
+	 */
+	public static TarContext of(){
+		return new TarContext(TarSupport.BUFFER_SIZE);
+	}
+	/**
+	 * コピーバッファサイズ指定.
+	 * @param bufferSize コピーバッファのバイト数、4KB の倍数（sparse の穴の検出単位）
+	 * @return 指定したバッファサイズの新しい TarContext
+	 */
+	public TarContext bufferSize(int bufferSize){
+		if (bufferSize <= 0 || bufferSize % TarSparseWriter.BLOCK_SIZE != 0)
+			throw new IllegalArgumentException("bufferSize must be a positive multiple of " + TarSparseWriter.BLOCK_SIZE + " : " + bufferSize);
+		return new TarContext(bufferSize);
+	}
+	/**
+	 * @return コピーバッファのバイト数
+	 */
+	public int getBufferSize(){
+		return bufferSize;
+	}
+
+	/**
+	 * コンテキストでの実行.
+	 * @param task 実行する処理
+	 * @param <T> 処理結果の型
+	 * @return 処理結果
+	 */
+	public <T> T call(Supplier<T> task){
+		TarContext previous = CURRENT.get();
+		CURRENT.set(this);
+		try{
+			return task.get();
+		}finally{
+			if (previous==null){
+				CURRENT.remove();
+			}else{
+				CURRENT.set(previous);
+			}
+		}
+	}
+	/**
+	 * コンテキストでの実行（結果なし）.
+	 * @param task 実行する処理
+	 */
+	public void run(Runnable task){
+		call(()->{
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * 終了.
+	 * プールしている Deflater／Inflater を解放する。実行中の処理が返すものは、返された時点で解放する。
+	 */
+	@Override
+	public synchronized void close(){
+		closed = true;
+		deflaters.forEach(Deflater::end);
+		deflaters.clear();
+		inflaters.forEach(Inflater::end);
+		inflaters.clear();
+		buffers.clear();
+	}
+
+	/**
+	 * @return 実行スレッドの TarContext、call／run の外では null
+	 */
+	static TarContext current(){
+		return CURRENT.get();
+	}
+	/**
+	 * @return コピーバッファ、release で返す。
+	 */
+	synchronized byte[] buffer(){
+		byte[] b = buffers.poll();
+		return b==null ? new byte[bufferSize] : b;
+	}
+	/**
+	 * @param b buffer で取得したコピーバッファ
+	 */
+	synchronized void release(byte[] b){
+		if (!closed && b.length==bufferSize) buffers.push(b);
+	}
+	/**
+	 * @return gzip（raw deflate）の Deflater、release で返す。
+	 */
+	synchronized Deflater deflater(){
+		Deflater d = deflaters.poll();
+		return d==null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : d;
+	}
+	/**
+	 * @param d deflater で取得した Deflater
+	 */
+	synchronized void release(Deflater d){
+		if (closed){
+			d.end();
+			return;
+		}
+		d.reset();
+		deflaters.push(d);
+	}
+	/**
+	 * @return gzip（raw deflate）の Inflater、release で返す。
+	 */
+	synchronized Inflater inflater(){
+		Inflater i = inflaters.poll();
+		return i==null ? new Inflater(true) : i;
+	}
+	/**
+	 * @param i inflater で取得した Inflater
+	 */
+	synchronized void release(Inflater i){
+		if (closed){
+			i.end();
+			return;
+		}
+		i.reset();
+		inflaters.push(i);
+	}
+}
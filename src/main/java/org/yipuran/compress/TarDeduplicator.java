@@ -0,0 +1,81 @@
+package org.yipuran.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.yipuran.file.FileCollection;
+
+/**
+ * 同一内容ファイルを hard link エントリにする tar 書込み.
+ * <PRE>
+ * 走査したファイルをサイズで分類し、同じサイズのファイルが複数ある場合だけ SHA-256 を計算する。
+ * 同じ内容のファイルは最初の１つだけデータを書込み、以降は最初のエントリ名を指す LF_LINK エントリにする。
+ * エントリ順序は TarSupport#write と同じ。
+ * </PRE>
+ */
+final class TarDeduplicator{
+	private TarDeduplicator(){}
+
+	/**
+	 * FileCollection の tar 書込み（重複排除）.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 * @throws IOException
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, Collection<String> entries) throws IOException{
+		TarSupport.configure(taos);
+		List<TarArchiveEntry> list = new ArrayList<>();
+		List<File> files = new ArrayList<>();
+		Map<Long, Integer> sizes = new HashMap<>();
+		TarSupport.walk(fileCollections, p, (f, name)->{
+			TarArchiveEntry entry = new TarArchiveEntry(f, name);
+			list.add(entry);
+			files.add(f);
+			if (!entry.isDirectory() && entry.getSize() > 0){
+				sizes.merge(entry.getSize(), 1, Integer::sum);
+			}
+		});
+		MessageDigest digest = TarSupport.sha256();
+		Map<ByteBuffer, String> stored = new HashMap<>();
+		byte[] buf = TarSupport.buffer();
+		try{
+			for(int i=0; i < list.size(); i++){
+				TarArchiveEntry entry = list.get(i);
+				File f = files.get(i);
+				if (entry.isDirectory() || sizes.getOrDefault(entry.getSize(), 0) < 2){
+					entries.add(TarSupport.put(taos, entry, f, buf, null, null).getName());
+					continue;
+				}
+				ByteBuffer key = ByteBuffer.wrap(TarSupport.digest(f, digest, buf));
+				String target = stored.get(key);
+				if (target==null){
+					stored.put(key, entry.getName());
+					entries.add(TarSupport.put(taos, entry, f, buf, null, null).getName());
+					continue;
+				}
+				TarArchiveEntry link = new TarArchiveEntry(entry.getName(), TarConstants.LF_LINK);
+				link.setLinkName(target);
+				link.setModTime(entry.getModTime());
+				link.setMode(entry.getMode());
+				TarSupport.putArchiveEntry(taos, link);
+				TarSupport.closeArchiveEntry(taos, link);
+				entries.add(link.getName());
+			}
+		}finally{
+			TarSupport.release(buf);
+		}
+	}
+}
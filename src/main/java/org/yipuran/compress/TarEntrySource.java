@@ -0,0 +1,111 @@
+package org.yipuran.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.function.Supplier;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * メモリ上の tar エントリ.
+ * <PRE>
+ * ファイルを経由せずに tar を作成する TarProcessor#write／TarGzipProcessor#write の要素。
+ * エントリ名とデータ（byte[] または InputStream の Supplier）を指定する。
+ * Supplier は書込み時に１回だけ呼ばれ、返した InputStream は書込み後に close する。
+ * 例）
+ *    TarGzipProcessor.write(response.getOutputStream(), Arrays.asList(
+ *        TarEntrySource.of("report/summary.csv", csv.getBytes(StandardCharsets.UTF_8)),
+ *        TarEntrySource.of("report/detail.bin", length, ()->openDetail())
+ *    ));
+ * </PRE>
+ */
+public final class TarEntrySource{
+	private final String name;
+	private final long size;
+	private final Supplier<InputStream> supplier;
+	private final long lastModified;
+	private final int mode;
+
+	private TarEntrySource(String name, long size, Supplier<InputStream> supplier, long lastModified, int mode){
+		if (name==null || name.isEmpty()) throw new IllegalArgumentException("name is required");
+		if (size < 0) throw new IllegalArgumentException("size must not be negative : " + size);
+		this.name = name;
+		this.size = size;
+		this.supplier = supplier;
+		this.lastModified = lastModified;
+		this.mode = mode;
+	}
+	/**
+	 * byte[] のエントリ.
+	 * @param name tarエントリ名
+	 * @param data データ
+	 * @return TarEntrySource
+	 */
+	public static TarEntrySource of(String name, byte[] data){
+		return new TarEntrySource(name, data.length, ()->new ByteArrayInputStream(data), System.currentTimeMillis(), TarArchiveEntry.DEFAULT_FILE_MODE);
+	}
+	/**
+	 * InputStream のエントリ.
+	 * @param name tarエントリ名
+	 * @param size データのバイト数、Supplier が返す InputStream から読むバイト数と一致すること
+	 * @param supplier データを読む InputStream の Supplier
+	 * @return TarEntrySource
+	 */
+	public static TarEntrySource of(String name, long size, Supplier<InputStream> supplier){
+		return new TarEntrySource(name, size, supplier, System.currentTimeMillis(), TarArchiveEntry.DEFAULT_FILE_MODE);
+	}
+	/**
+	 * ディレクトリのエントリ.
+	 * @param name tarエントリ名
+	 * @return TarEntrySource
+	 */
+	public static TarEntrySource directory(String name){
+		return new TarEntrySource(name.endsWith("/") ? name : name + "/", 0, null, System.currentTimeMillis(), TarArchiveEntry.DEFAULT_DIR_MODE);
+	}
+	/**
+	 * 更新日時の指定.
+	 * @param lastModified 更新日時（ミリ秒）
+	 * @return 更新日時を変更した TarEntrySource
+	 */
+	public TarEntrySource lastModified(long lastModified){
+		return new TarEntrySource(name, size, supplier, lastModified, mode);
+	}
+	/**
+	 * パーミッションの指定.
+	 * @param mode パーミッション、例 0755
+	 * @return パーミッションを変更した TarEntrySource
+	 */
+	public TarEntrySource mode(int mode){
+		return new TarEntrySource(name, size, supplier, lastModified, (this.mode & ~07777) | (mode & 07777));
+	}
+	/**
+	 * @return tarエントリ名
+	 */
+	public String getName(){
+		return name;
+	}
+	/**
+	 * @return データのバイト数
+	 */
+	public long getSize(){
+		return size;
+	}
+	/**
+	 * @return ディレクトリの場合 true
+	 */
+	public boolean isDirectory(){
+		return supplier==null;
+	}
+
+	TarArchiveEntry toArchiveEntry(){
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setMode(mode);
+		entry.setModTime(new Date(lastModified));
+		if (!isDirectory()) entry.setSize(size);
+		return entry;
+	}
+	InputStream open(){
+		return supplier.get();
+	}
+}
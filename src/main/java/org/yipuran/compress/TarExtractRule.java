@@ -0,0 +1,127 @@
+package org.yipuran.compress;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+/**
+ * 選択展開の規則.
+ * <PRE>
+ * 展開するエントリの条件、展開先ディレクトリ、エントリ名→展開先の相対パス の対応を指定する。
+ * TarGzipProcessor#extract／TarProcessor#extract に複数の規則を渡すと、１回の解凍で各エントリを
+ * 条件に一致したすべての規則の展開先に書込む。
+ * エントリ名で指定した規則、limit を指定した規則は対象の件数が決まっているので、
+ * すべての規則がそのような規則で対象をすべて展開した時点で、残りを読まずに終了する。
+ * 例）
+ *    List<List<String>> result = TarGzipProcessor.extract(targzPath, Arrays.asList(
+ *        TarExtractRule.of(e->e.getName().endsWith(".csv"), "/work/csv").flatten(),
+ *        TarExtractRule.of(Arrays.asList("conf/app.properties", "conf/log4j2.xml"), "/work/conf"),
+ *        TarExtractRule.of(e->e.getName().startsWith("img/"), "/work/images").map(n->n.substring(4)).limit(100)
+ *    ));
+ * </PRE>
+ */
+public final class TarExtractRule{
+	private final Predicate<ArchiveEntry> predicate;
+	private final Set<String> names;
+	private final String dirPath;
+	private final Function<String, String> mapping;
+	private final boolean flatten;
+	private final int limit;
+
+	private TarExtractRule(Predicate<ArchiveEntry> predicate, Set<String> names, String dirPath, Function<String, String> mapping, boolean flatten, int limit){
+		if (dirPath==null) throw new IllegalArgumentException("dirPath is required");
+		this.predicate = predicate;
+		this.names = names;
+		this.dirPath = dirPath;
+		this.mapping = mapping;
+		this.flatten = flatten;
+		this.limit = limit;
+	}
+	/**
+	 * Predicate の規則.
+	 * エントリ名のパスのまま展開する。
+	 * @param p 展開するエントリの Predicate
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return TarExtractRule
+	 */
+	public static TarExtractRule of(Predicate<ArchiveEntry> p, String dirPath){
+		return new TarExtractRule(p, null, dirPath, Function.identity(), false, -1);
+	}
+	/**
+	 * エントリ名の規則.
+	 * 指定したエントリをすべて展開した時点で、この規則は完了する。
+	 * @param names 展開するエントリ名
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return TarExtractRule
+	 */
+	public static TarExtractRule of(Collection<String> names, String dirPath){
+		Set<String> set = Collections.unmodifiableSet(new LinkedHashSet<>(names));
+		return new TarExtractRule(e->set.contains(e.getName()), set, dirPath, Function.identity(), false, -1);
+	}
+	/**
+	 * 展開先のパスをエントリ名の最後の要素（ファイル名）にする。ディレクトリのエントリは展開しない。
+	 * @return ファイル名で展開する TarExtractRule
+	 */
+	public TarExtractRule flatten(){
+		return new TarExtractRule(predicate, names, dirPath, TarExtractRule::fileName, true, limit);
+	}
+	/**
+	 * 展開先パスの指定.
+	 * @param mapping エントリ名 → 展開先ディレクトリからの相対パス、null を返したエントリは展開しない。
+	 * @return 展開先パスを変更した TarExtractRule
+	 */
+	public TarExtractRule map(Function<String, String> mapping){
+		return new TarExtractRule(predicate, names, dirPath, mapping, false, limit);
+	}
+	/**
+	 * 展開件数の上限.
+	 * @param count 展開するエントリ数、この件数を展開した時点で、この規則は完了する。
+	 * @return 上限を指定した TarExtractRule
+	 */
+	public TarExtractRule limit(int count){
+		if (count < 0) throw new IllegalArgumentException("count must not be negative : " + count);
+		return new TarExtractRule(predicate, names, dirPath, mapping, flatten, count);
+	}
+	/**
+	 * @return 展開先ディレクトリPATH
+	 */
+	public String getDirPath(){
+		return dirPath;
+	}
+	/**
+	 * @return 展開する対象の件数が決まっている場合 true
+	 */
+	public boolean isFinite(){
+		return names != null || limit >= 0;
+	}
+
+	boolean test(ArchiveEntry entry){
+		if (flatten && entry.isDirectory()) return false;
+		return predicate.test(entry);
+	}
+	String map(String name){
+		return mapping.apply(name);
+	}
+	/**
+	 * @param extracted この規則で展開したエントリ数
+	 * @param found この規則で展開した、エントリ名の規則のエントリ名
+	 * @return 規則が完了した場合 true
+	 */
+	boolean isSatisfied(int extracted, Set<String> found){
+		if (limit >= 0 && extracted >= limit) return true;
+		return names != null && found.size()==names.size();
+	}
+	boolean isNamed(){
+		return names != null;
+	}
+
+	private static String fileName(String name){
+		String[] names = name.split("/");
+		return names[names.length-1];
+	}
+}
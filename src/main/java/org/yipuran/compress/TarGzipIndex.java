@@ -0,0 +1,461 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * tar and gzip ランダムアクセスインデックス.
+ * <PRE>
+ * 解凍再開チェックポイント（deflate データ位置、解凍後オフセット、直前 32KB の辞書）と
+ * tar エントリ表（エントリ名、サイズ、解凍後のデータ開始オフセット、hard link のリンク名）を保持する。
+ * 単一エントリの読込み・展開は、エントリ直前のチェックポイントから解凍を再開する。
+ * hard link エントリ（dedupCompress の重複ファイル）の読込みは、リンク先エントリのデータを読む。
+ * hard link を記録していないバージョン 1 のインデックスは読めないので、build で作り直すこと。
+ * エントリ名・ArchiveEntry の参照は解凍せずにインデックスから返す。
+ *
+ * （作成）
+ * TarGzipProcessor#indexedCompress で圧縮時に サイドカーファイル（*.tar.gz.idx）を作成する。
+ * 既存の tar.gz からは build で作成できるが、チェックポイントは gzip メンバーの先頭だけになる。
+ * 例）
+ *    TarGzipIndex index = TarGzipIndex.read(targzPath + TarGzipIndex.SUFFIX);
+ *    Collection<String> names = index.viewPath();
+ *    try(InputStream in = index.open(targzPath, "data/a/b.txt")){
+ *        ...
+ *    }
+ * </PRE>
+ */
+public final class TarGzipIndex{
+	/** サイドカーファイル拡張子 */
+	public static final String SUFFIX = ".idx";
+	/** デフォルトのチェックポイント間隔 */
+	public static final long DEFAULT_SPAN = 4L * 1024 * 1024;
+
+	private static final int MAGIC = 0x54475a49;
+	private static final int VERSION = 2;
+	private static final int RECORD = TarConstants.DEFAULT_RCDSIZE;
+
+	private final long archiveLength;
+	private final List<Checkpoint> checkpoints;
+	private final List<Entry> entries;
+	private final Map<String, Entry> entryMap = new LinkedHashMap<>();
+
+	TarGzipIndex(long archiveLength, List<Checkpoint> checkpoints, List<Entry> entries){
+		this.archiveLength = archiveLength;
+		this.checkpoints = Collections.unmodifiableList(checkpoints);
+		this.entries = Collections.unmodifiableList(entries);
+		// 同じエントリ名が複数ある場合は、展開と同じく後のエントリを使う
+		entries.forEach(e->entryMap.put(e.name, e));
+	}
+
+	/**
+	 * 既存 tar.gz からインデックス作成.
+	 * <PRE>
+	 * アーカイブを１回解凍してエントリ表を作成する。append で連結したセグメントのエントリも含める。
+	 * 標準の deflate ストリームはブロック境界がビット単位のため、チェックポイントは gzip メンバーの先頭だけになる。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @return TarGzipIndex
+	 */
+	public static TarGzipIndex build(String targzPath){
+		List<Checkpoint> checkpoints = new ArrayList<>();
+		List<Entry> entries = new ArrayList<>();
+		try(FileInputStream fis = new FileInputStream(targzPath);
+			CheckpointInflaterInputStream cin = new CheckpointInflaterInputStream(fis, 0, 0, new byte[0], true,
+					(position, offset)->checkpoints.add(new Checkpoint(position, offset, new byte[0])));
+			PushbackInputStream in = new PushbackInputStream(cin, RECORD)
+		){
+			// append した tar.gz は終端マーカーで区切られたセグメントが続くので、TarSegmentInputStream と同じく次のセグメントも読む
+			long start = 0;
+			do{
+				TarArchiveInputStream tais = new TarArchiveInputStream(in, RECORD);
+				TarArchiveEntry entry = null;
+				while((entry = tais.getNextEntry()) != null){
+					entries.add(new Entry(entry, start + tais.getBytesRead()));
+				}
+				start += tais.getBytesRead();
+			}while((start = nextSegment(in, start)) >= 0);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return new TarGzipIndex(new File(targzPath).length(), checkpoints, entries);
+	}
+
+	/**
+	 * 終端マーカーの後の次のセグメント.
+	 * @param in 解凍した tar、終端マーカーの後の位置
+	 * @param position in の解凍後オフセット
+	 * @return 次のセグメントの解凍後オフセット、無い場合は -1
+	 */
+	private static long nextSegment(PushbackInputStream in, long position) throws IOException{
+		byte[] block = new byte[RECORD];
+		while(true){
+			if (IOUtils.read(in, block) < RECORD) return -1;
+			boolean zero = true;
+			for(int i=0; i < RECORD && zero; i++){
+				zero = block[i]==0;
+			}
+			if (!zero) break;
+			position += RECORD;
+		}
+		if (!TarUtils.verifyCheckSum(block)) return -1;
+		in.unread(block);
+		return position;
+	}
+
+	/**
+	 * サイドカーファイル読込み.
+	 * @param indexPath インデックスファイルパス
+	 * @return TarGzipIndex
+	 */
+	public static TarGzipIndex read(String indexPath){
+		try(FileInputStream fis = new FileInputStream(indexPath);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fis, TarSupport.BUFFER_SIZE)))
+		){
+			if (in.readInt() != MAGIC) throw new IOException("Not a tar.gz index : " + indexPath);
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported index version : " + version + ", rebuild the index");
+			long archiveLength = in.readLong();
+			int n = in.readInt();
+			List<Checkpoint> checkpoints = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				long position = in.readLong();
+				long offset = in.readLong();
+				byte[] window = new byte[in.readInt()];
+				in.readFully(window);
+				checkpoints.add(new Checkpoint(position, offset, window));
+			}
+			n = in.readInt();
+			List<Entry> entries = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				String name = in.readUTF();
+				long size = in.readLong();
+				long offset = in.readLong();
+				long lastModified = in.readLong();
+				int mode = in.readInt();
+				boolean directory = in.readBoolean();
+				String linkName = in.readBoolean() ? in.readUTF() : null;
+				entries.add(new Entry(name, size, offset, lastModified, mode, directory, linkName));
+			}
+			return new TarGzipIndex(archiveLength, checkpoints, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * サイドカーファイル書込み.
+	 * @param indexPath インデックスファイルパス
+	 */
+	public void write(String indexPath){
+		try(FileOutputStream fos = new FileOutputStream(indexPath);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fos, TarSupport.BUFFER_SIZE)))
+		){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(archiveLength);
+			out.writeInt(checkpoints.size());
+			for(Checkpoint c : checkpoints){
+				out.writeLong(c.position);
+				out.writeLong(c.offset);
+				out.writeInt(c.window.length);
+				out.write(c.window);
+			}
+			out.writeInt(entries.size());
+			for(Entry e : entries){
+				out.writeUTF(e.name);
+				out.writeLong(e.size);
+				out.writeLong(e.offset);
+				out.writeLong(e.lastModified);
+				out.writeInt(e.mode);
+				out.writeBoolean(e.directory);
+				out.writeBoolean(e.linkName != null);
+				if (e.linkName != null) out.writeUTF(e.linkName);
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * チェックポイント.
+	 * @return List<Checkpoint>
+	 */
+	public List<Checkpoint> getCheckpoints(){
+		return checkpoints;
+	}
+	/**
+	 * エントリ表.
+	 * @return List<Entry>
+	 */
+	public List<Entry> getEntries(){
+		return entries;
+	}
+	/**
+	 * エントリ検索.
+	 * 同じエントリ名が複数ある場合（appendEntries で追加した場合など）は、展開と同じく最後のエントリを返す。
+	 * @param name エントリ名
+	 * @return Entry、存在しない場合は null
+	 */
+	public Entry getEntry(String name){
+		return entryMap.get(name);
+	}
+	/**
+	 * エントリ名コレクション（解凍しない）.
+	 * @return Collection<String>
+	 */
+	public Collection<String> viewPath(){
+		return entries.stream().map(e->e.name).collect(Collectors.toList());
+	}
+	/**
+	 * ArchiveEntryコレクション（解凍しない）.
+	 * @return Collection<ArchiveEntry>
+	 */
+	public Collection<ArchiveEntry> entries(){
+		return entries(e->true);
+	}
+	/**
+	 * Predicate→ArchiveEntryコレクション（解凍しない）.
+	 * @param p Predicate<ArchiveEntry> ファイルのArchiveEntry の Predicate
+	 * @return Collection<ArchiveEntry>
+	 */
+	public Collection<ArchiveEntry> entries(Predicate<ArchiveEntry> p){
+		return entries.stream().map(Entry::toArchiveEntry).filter(p).collect(Collectors.toList());
+	}
+
+	/**
+	 * エントリ読込み.
+	 * <PRE>
+	 * エントリ直前のチェックポイントから解凍を再開し、エントリのデータだけを読む InputStream を返す。
+	 * hard link エントリはリンク先エントリのデータを読む。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param name エントリ名
+	 * @return InputStream、close で tar.gz ファイルを閉じる。
+	 */
+	public InputStream open(String targzPath, String name){
+		Entry entry = getEntry(name);
+		if (entry==null) throw new IllegalArgumentException("No such entry : " + name);
+		return open(targzPath, entry);
+	}
+	/**
+	 * エントリ読込み.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param entry エントリ、hard link エントリの場合はリンク先エントリのデータを読む。
+	 * @return InputStream、close で tar.gz ファイルを閉じる。
+	 */
+	public InputStream open(String targzPath, Entry entry){
+		if (new File(targzPath).length() != archiveLength)
+			throw new IllegalStateException("Index does not match archive : " + targzPath);
+		entry = dataEntry(entry);
+		Checkpoint checkpoint = checkpoints.get(0);
+		for(Checkpoint c : checkpoints){
+			if (c.offset > entry.offset) break;
+			checkpoint = c;
+		}
+		try{
+			FileChannel channel = FileChannel.open(Paths.get(targzPath), StandardOpenOption.READ);
+			try{
+				channel.position(checkpoint.position);
+				InputStream in = TarMonitor.codec(new CheckpointInflaterInputStream(TarMonitor.archive(Channels.newInputStream(channel)),
+						checkpoint.position, checkpoint.offset, checkpoint.window, false, null));
+				long skip = entry.offset - checkpoint.offset;
+				if (in.skip(skip) != skip) throw new IOException("Unexpected end of archive : " + targzPath);
+				return new BoundedInputStream(in, entry.size);
+			}catch(IOException | RuntimeException ex){
+				channel.close();
+				throw ex;
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * hard link のリンク先.
+	 * @param entry エントリ
+	 * @return データを持つエントリ、hard link でない場合は entry
+	 */
+	private Entry dataEntry(Entry entry){
+		Entry target = entry;
+		for(int i=0; target.linkName != null; i++){
+			if (i > entries.size()) throw new IllegalStateException("hard link loop : " + entry.name);
+			Entry found = entryMap.get(target.linkName);
+			if (found==null) throw new IllegalStateException("hard link target not in index : " + target.linkName);
+			target = found;
+		}
+		return target;
+	}
+
+	/**
+	 * Predicateファイル展開.
+	 * <PRE>
+	 * Predicate に一致したエントリだけを、チェックポイントから解凍して展開先パスに出力する。
+	 * TarGzipProcessor#predicateOpen と同じく、出力ファイル名はエントリ名の最後の要素になる。
+	 * hard link エントリはリンク先エントリのデータを書込む。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param dirPath 展開先パス
+	 * @param p Predicate<ArchiveEntry> 展開するファイルのArchiveEntry の Predicate
+	 */
+	public void predicateOpen(String targzPath, String dirPath, Predicate<ArchiveEntry> p){
+		byte[] buf = TarSupport.buffer();
+		try{
+			for(Entry entry : entries){
+				TarArchiveEntry archiveEntry = entry.toArchiveEntry();
+				if (entry.directory || !p.test(archiveEntry)) continue;
+				TarMonitor.entryStarted(archiveEntry);
+				String[] names = entry.name.split("/");
+				try(InputStream in = open(targzPath, entry); OutputStream out = TarMonitor.target(new FileOutputStream(dirPath + "/" + names[names.length-1]))){
+					int size = 0;
+					while((size = in.read(buf)) > 0){
+						out.write(buf, 0, size);
+					}
+				}catch(IOException ex){
+					throw new RuntimeException(ex.getMessage(), ex);
+				}
+				TarMonitor.entryFinished(archiveEntry);
+			}
+		}finally{
+			TarSupport.release(buf);
+		}
+	}
+
+	/**
+	 * 解凍再開チェックポイント.
+	 */
+	public static final class Checkpoint{
+		private final long position;
+		private final long offset;
+		private final byte[] window;
+
+		Checkpoint(long position, long offset, byte[] window){
+			this.position = position;
+			this.offset = offset;
+			this.window = window;
+		}
+		/**
+		 * @return tar.gz ファイル中の deflate データ位置
+		 */
+		public long getPosition(){
+			return position;
+		}
+		/**
+		 * @return 解凍後オフセット
+		 */
+		public long getOffset(){
+			return offset;
+		}
+		/**
+		 * @return 辞書サイズ
+		 */
+		public int getWindowSize(){
+			return window.length;
+		}
+	}
+
+	/**
+	 * インデックスのエントリ.
+	 */
+	public static final class Entry{
+		private final String name;
+		private final long size;
+		private final long offset;
+		private final long lastModified;
+		private final int mode;
+		private final boolean directory;
+		private final String linkName;
+
+		Entry(TarArchiveEntry entry, long offset){
+			this(entry.getName(), entry.getSize(), offset, entry.getModTime().getTime(), entry.getMode(), entry.isDirectory(),
+					entry.isLink() ? entry.getLinkName() : null);
+		}
+		Entry(String name, long size, long offset, long lastModified, int mode, boolean directory, String linkName){
+			this.name = name;
+			this.size = size;
+			this.offset = offset;
+			this.lastModified = lastModified;
+			this.mode = mode;
+			this.directory = directory;
+			this.linkName = linkName;
+		}
+		/**
+		 * @return エントリ名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return サイズ
+		 */
+		public long getSize(){
+			return size;
+		}
+		/**
+		 * @return 解凍後のデータ開始オフセット
+		 */
+		public long getOffset(){
+			return offset;
+		}
+		/**
+		 * @return ディレクトリの場合 true
+		 */
+		public boolean isDirectory(){
+			return directory;
+		}
+		/**
+		 * @return hard link エントリの場合 true
+		 */
+		public boolean isLink(){
+			return linkName != null;
+		}
+		/**
+		 * @return hard link のリンク先エントリ名、hard link でない場合は null
+		 */
+		public String getLinkName(){
+			return linkName;
+		}
+		/**
+		 * ArchiveEntry 生成.
+		 * @return TarArchiveEntry
+		 */
+		public TarArchiveEntry toArchiveEntry(){
+			TarArchiveEntry entry = linkName==null ? new TarArchiveEntry(name) : new TarArchiveEntry(name, TarConstants.LF_LINK);
+			if (linkName != null) entry.setLinkName(linkName);
+			entry.setSize(directory || linkName != null ? 0 : size);
+			entry.setModTime(lastModified);
+			entry.setMode(mode);
+			return entry;
+		}
+	}
+}
@@ -6,19 +6,28 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.yipuran.file.FileCollection;
 
 /**
@@ -60,120 +69,373 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @return tarエントリ名 Collection
 	 */
 	public default Collection<String> compress(String targzPath){
+		return compress(targzPath, null);
+	}
+
+	/**
+	 * tar and gzip 圧縮実行（対象制限）.
+	 * <PRE>
+	 * Predicate<File> で、tar作成対象を制限する。任意ディレクトリパスなど制限するために使用する。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String targzPath, Predicate<File> p){
 		Collection<String> entries = new ArrayList<>();
-		String tarpath = targzPath.replaceAll("\\.tar\\.gz$", ".tar");
-		// tar 生成
-		try(FileOutputStream out = new FileOutputStream(tarpath);TarArchiveOutputStream taos = new TarArchiveOutputStream(out)){
-			get().forEach(fc->{
-				String prefix = fc.getFile().getParentFile().getAbsolutePath().replaceAll("\\\\", "/");
-				fc.scan(f->{
-					try{
-						if (f.isDirectory()){
-							TarArchiveEntry entry = new TarArchiveEntry(fc.getFile(), f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-							taos.putArchiveEntry(entry);
-							taos.closeArchiveEntry();
-							entries.add(entry.getName());
-							return;
-						}
-						TarArchiveEntry entry = new TarArchiveEntry(f, f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-						taos.putArchiveEntry(entry);
-						//taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-						taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-						try(FileInputStream fis = new FileInputStream(f); BufferedInputStream bis = new BufferedInputStream(fis)){
-							int size = 0;
-							byte[] buf = new byte[1024];
-							while((size = bis.read(buf)) > 0){
-								taos.write(buf, 0, size);
-							}
-						}
-						taos.closeArchiveEntry();
-						entries.add(entry.getName());
-					}catch(IOException ex){
-						throw new RuntimeException(ex);
-					}
-				});
-			});
+		// tar → gzip を１回の書込みで生成
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream gout = TarSupport.gzip(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.write(taos, get(), p, entries);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		// gzip 生成
-		try(FileInputStream fis = new FileInputStream(tarpath); BufferedInputStream bis = new BufferedInputStream(fis);
-			FileOutputStream fos = new FileOutputStream(targzPath); GzipCompressorOutputStream gout = new GzipCompressorOutputStream(fos)
+		return entries;
+	}
+
+	/**
+	 * tar and gzip 圧縮実行（先読みパイプライン）.
+	 * <PRE>
+	 * FileCollection 毎の走査と、ファイルの stat・読込みを executor で並列に先行して行い、
+	 * tar → gzip への書込みは呼出しスレッドで compress と同じ順序で行う。
+	 * gzip 圧縮も並列にする場合は parallelCompress を使用する。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param executor ファイルの先読みを実行する ExecutorService、終了は呼出し側で行う。走査は別の専用スレッドで行う。
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String targzPath, Predicate<File> p, ExecutorService executor){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream gout = TarSupport.gzip(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
 		){
-			int size = 0;
-			byte[] buf = new byte[1024];
-			while((size = bis.read(buf)) > 0){
-				gout.write(buf, 0, size);
-			}
+			PrefetchTarWriter.write(taos, get(), p, entries, null, executor);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		new File(tarpath).delete();
 		return entries;
 	}
 
+
 	/**
-	 * tar and gzip 圧縮実行（対象制限）.
+	 * tar and gzip 圧縮実行（重複排除）.
 	 * <PRE>
-	 * Predicate<File> で、tar作成対象を制限する。任意ディレクトリパスなど制限するために使用する。
+	 * 内容が同じファイルは最初の１つだけデータを書込み、以降は hard link エントリ（LF_LINK）にする。
+	 * 同じサイズのファイルが複数ある場合だけ SHA-256 を計算する。
+	 * decompress では hard link を作成し、作成できない場合はコピーする。
+	 * extract（規則）・predicateOpen、TarGzipIndex、MappedTarFile はリンク先のデータを読んで展開・返却する。
+	 * stream の TarStreamEntry は LF_LINK エントリのまま（データは空）なので、呼出し側で getLinkName のエントリを参照すること。
 	 * </PRE>
 	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
-	 * @param p Predicate<File>制限規則の付与
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
 	 * @return tarエントリ名 Collection
 	 */
-	public default Collection<String> compress(String targzPath, Predicate<File> p){
+	public default Collection<String> dedupCompress(String targzPath, Predicate<File> p){
 		Collection<String> entries = new ArrayList<>();
-		String tarpath = targzPath.replaceAll("\\.tar\\.gz$", ".tar");
-		// tar 生成
-		try(FileOutputStream out = new FileOutputStream(tarpath);TarArchiveOutputStream taos = new TarArchiveOutputStream(out)){
-			get().forEach(fc->{
-				String prefix = fc.getFile().getParentFile().getAbsolutePath().replaceAll("\\\\", "/");
-				fc.scan(p, f->{
-					try{
-						if (f.isDirectory()){
-							TarArchiveEntry entry = new TarArchiveEntry(fc.getFile(), f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-							taos.putArchiveEntry(entry);
-							taos.closeArchiveEntry();
-							entries.add(entry.getName());
-							return;
-						}
-						TarArchiveEntry entry = new TarArchiveEntry(f, f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-						taos.putArchiveEntry(entry);
-						//taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-						taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-						try(FileInputStream fis = new FileInputStream(f); BufferedInputStream bis = new BufferedInputStream(fis)){
-							int size = 0;
-							byte[] buf = new byte[1024];
-							while((size = bis.read(buf)) > 0){
-								taos.write(buf, 0, size);
-							}
-						}
-						taos.closeArchiveEntry();
-						entries.add(entry.getName());
-					}catch(IOException ex){
-						throw new RuntimeException(ex);
-					}
-				});
-			});
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream gout = TarSupport.gzip(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarDeduplicator.write(taos, get(), p, entries);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		// gzip 生成
-		try(FileInputStream fis = new FileInputStream(tarpath); BufferedInputStream bis = new BufferedInputStream(fis);
-			FileOutputStream fos = new FileOutputStream(targzPath); GzipCompressorOutputStream gout = new GzipCompressorOutputStream(fos)
+		return entries;
+	}
+
+	/**
+	 * tar and gzip 圧縮実行（sparse ファイル対応）.
+	 * <PRE>
+	 * 1MB 以上のファイルはゼロブロック（4KB 単位）を穴として検出し、穴の合計が 64KB 以上なら
+	 * PAX 0.1 形式の GNU sparse エントリとしてデータ領域だけを書込む。
+	 * decompress は sparse エントリの穴を書込まずに復元する。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> sparseCompress(String targzPath, Predicate<File> p){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream gout = TarSupport.gzip(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
 		){
-			int size = 0;
-			byte[] buf = new byte[1024];
-			while((size = bis.read(buf)) > 0){
-				gout.write(buf, 0, size);
+			TarSparseWriter.write(taos, get(), p, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar and gzip へのエントリ追加.
+	 * <PRE>
+	 * 既存の tar.gz を解凍せずに、対象のファイルの tar を新しい gzip メンバーとしてファイルの後に追加する。
+	 * 処理量は追加するデータの量だけで、既存のアーカイブのサイズによらない。
+	 * 追加した tar.gz は decompress／viewPath／entries／stream 等で１つのアーカイブとして読める。
+	 * GNU tar で展開する場合は --ignore-zeros（-i）を指定すること。indexedCompress の索引は追加したエントリを含まない。
+	 * </PRE>
+	 * @param targzPath 追加先の tar and gzip ファイルパス、存在しない場合は新規作成
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @return 追加した tarエントリ名 Collection
+	 */
+	public default Collection<String> append(String targzPath, Predicate<File> p){
+		Collection<String> entries = new ArrayList<>();
+		try{
+			TarAppender.appendTarGz(targzPath, taos->TarSupport.write(taos, get(), p, entries));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * tar and gzip へのメモリ上のエントリ追加.
+	 * append(targzPath, p) と同じく、新しい gzip メンバーとして追加する。
+	 * @param targzPath 追加先の tar and gzip ファイルパス、存在しない場合は新規作成
+	 * @param sources 追加するエントリ
+	 * @return 追加した tarエントリ名 Collection
+	 */
+	public static Collection<String> appendEntries(String targzPath, Collection<TarEntrySource> sources){
+		Collection<String> entries = new ArrayList<>();
+		try{
+			TarAppender.appendTarGz(targzPath, taos->TarSupport.write(taos, sources, entries));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar and gzip 並列圧縮実行.
+	 * <PRE>
+	 * tar ストリームを blockSize 毎に分割し、threads 数のスレッドで並列に gzip 圧縮する。
+	 * 出力は標準の gzip 形式で、decompress や gunzip で展開できる。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize 並列圧縮のブロックサイズ、32KB 以上
+	 * @param threads 圧縮スレッド数
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> parallelCompress(String targzPath, int level, int blockSize, int threads){
+		return parallelCompress(targzPath, null, level, blockSize, threads);
+	}
+
+	/**
+	 * tar and gzip 並列圧縮実行（対象制限）.
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize 並列圧縮のブロックサイズ、32KB 以上
+	 * @param threads 圧縮スレッド数
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> parallelCompress(String targzPath, Predicate<File> p, int level, int blockSize, int threads){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			ParallelGzipOutputStream gout = new ParallelGzipOutputStream(TarMonitor.archive(fos), level, blockSize, threads);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.write(taos, get(), p, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar and gzip 並列圧縮実行（ExecutorService 指定）.
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize 並列圧縮のブロックサイズ、32KB 以上
+	 * @param executor 圧縮を実行する ExecutorService、終了は呼出し側で行う。
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> parallelCompress(String targzPath, Predicate<File> p, int level, int blockSize, ExecutorService executor){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			ParallelGzipOutputStream gout = new ParallelGzipOutputStream(TarMonitor.archive(fos), level, blockSize, executor);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.write(taos, get(), p, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar and gzip 並列圧縮実行（ランダムアクセスインデックス作成）.
+	 * <PRE>
+	 * parallelCompress と同じ tar.gz を作成し、同時に span 毎の解凍再開チェックポイントと
+	 * エントリ表を持つインデックスを サイドカーファイル targzPath + TarGzipIndex.SUFFIX に書込む。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param level 圧縮レベル、-1（デフォルト）, 0～9
+	 * @param blockSize 並列圧縮のブロックサイズ、32KB 以上
+	 * @param threads 圧縮スレッド数
+	 * @param span チェックポイント間隔（解凍後バイト数）、TarGzipIndex.DEFAULT_SPAN 等
+	 * @return 作成した TarGzipIndex
+	 */
+	public default TarGzipIndex indexedCompress(String targzPath, Predicate<File> p, int level, int blockSize, int threads, long span){
+		Collection<String> entries = new ArrayList<>();
+		List<TarGzipIndex.Entry> indexEntries = new ArrayList<>();
+		List<TarGzipIndex.Checkpoint> checkpoints;
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			ParallelGzipOutputStream gout = new ParallelGzipOutputStream(TarMonitor.archive(fos), level, blockSize, threads)
+		){
+			gout.setCheckpointSpan(span);
+			try(TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))){
+				TarSupport.write(taos, get(), p, entries, e->indexEntries.add(new TarGzipIndex.Entry(e, taos.getBytesWritten())));
 			}
+			checkpoints = gout.getCheckpoints();
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		new File(tarpath).delete();
+		TarGzipIndex index = new TarGzipIndex(new File(targzPath).length(), checkpoints, indexEntries);
+		index.write(targzPath + TarGzipIndex.SUFFIX);
+		return index;
+	}
+
+	/**
+	 * tar and gzip 分割圧縮実行.
+	 * <PRE>
+	 * 対象を、それぞれ maxVolumeSize 以下の独立した tar.gz（ボリューム）に分けて、ボリュームごとに並列に圧縮する。
+	 * ボリュームは TarVolumeIndex#volumePath の名前（targzPath の .tar.gz を除いた名前 + ".000.tar.gz" ～）で作成し、
+	 * どのボリュームにどのエントリが入っているかを サイドカーファイル targzPath + TarVolumeIndex.SUFFIX に書込む。
+	 * targzPath のファイル自体は作成しない。
+	 * split が false の場合はエントリ単位でボリュームに割当て、ボリュームに入らない大きさのファイルはエラーにする。
+	 * split が true の場合は、ボリュームの残りに入らないファイルを分割して次のボリュームに続けるので、最後以外のボリュームはほぼ上限まで詰まる。
+	 * 分割した部分は "@split/" で始まる名前の tar エントリにするので、この名前で始まる対象はエラーにする。
+	 * 割当ては圧縮前の tar のバイト数で行うので、圧縮の効くデータではボリュームは上限よりかなり小さくなる。
+	 * 展開は decompressVolumes、単一エントリの読込みは TarVolumeIndex#open で、エントリを含むボリュームだけを開く。
+	 * 例）
+	 *    TarVolumeIndex index = processor.volumeCompress(targzPath, null, 512L * 1024 * 1024, true, 8);
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz、ボリュームとインデックスのファイル名にする。
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param maxVolumeSize ボリュームサイズの上限（バイト数）
+	 * @param split true の場合、ボリュームに入らないファイルを分割する。
+	 * @param threads 圧縮スレッド数
+	 * @return 作成した TarVolumeIndex
+	 */
+	public default TarVolumeIndex volumeCompress(String targzPath, Predicate<File> p, long maxVolumeSize, boolean split, int threads){
+		return TarVolumes.write(targzPath, get(), p, maxVolumeSize, split, threads);
+	}
+
+	/**
+	 * tar and gzip 差分圧縮実行.
+	 * <PRE>
+	 * base のマニフェストから追加・変更されたファイルだけを tar.gz に書込み、
+	 * 全対象の状態と削除されたエントリ名をマニフェストとして サイドカーファイル targzPath + TarManifest.SUFFIX に書込む。
+	 * base が null の場合は全体を書込む。（チェーンの起点）
+	 * 復元は restore で、起点から順にアーカイブを指定する。
+	 * </PRE>
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param base 基準のマニフェスト（前回のアーカイブの TarManifest.of）、null の場合は全体
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @param hash true=SHA-256 を記録し、更新日時だけが変わったファイルは内容を比較して除外する。
+	 * @return 作成した TarManifest
+	 */
+	public default TarManifest incrementalCompress(String targzPath, TarManifest base, Predicate<File> p, boolean hash){
+		Collection<String> entries = new ArrayList<>();
+		TarManifest manifest;
+		try(FileOutputStream fos = new FileOutputStream(targzPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			OutputStream gout = TarSupport.gzip(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			manifest = TarIncremental.write(taos, get(), p, base, hash, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		manifest.write(targzPath + TarManifest.SUFFIX);
+		return manifest;
+	}
+
+	/**
+	 * 差分アーカイブの復元.
+	 * <PRE>
+	 * 起点の全体アーカイブから順に、各アーカイブのマニフェストに記録された削除を適用してから展開する。
+	 * サイドカーファイルが無いアーカイブは展開だけを行う。
+	 * </PRE>
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param targzPaths tar and gzip ファイルパス、起点の全体アーカイブ、差分アーカイブの順
+	 * @return Collection<String> 展開された tar エントリ名、展開順
+	 */
+	public static Collection<String> restore(String dirPath, List<String> targzPaths){
+		Collection<String> entries = new ArrayList<>();
+		for(String targzPath : targzPaths){
+			try{
+				if (new File(targzPath + TarManifest.SUFFIX).exists()){
+					TarIncremental.applyDeletions(dirPath, TarManifest.of(targzPath));
+				}
+			}catch(IOException ex){
+				throw new RuntimeException(ex.getMessage(), ex);
+			}
+			entries.addAll(decompress(targzPath, dirPath));
+		}
 		return entries;
 	}
 
+	/**
+	 * tar and gzip 圧縮実行（OutputStream 出力）.
+	 * <PRE>
+	 * ファイルを作成せずに、tar.gz を out に書込む。out は close しない。
+	 * </PRE>
+	 * @param out 出力先 OutputStream
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(OutputStream out){
+		Collection<String> entries = new ArrayList<>();
+		try(OutputStream gout = TarSupport.gzip(CloseShieldOutputStream.wrap(out));
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.write(taos, get(), null, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * tar and gzip 圧縮実行（WritableByteChannel 出力）.
+	 * channel は close しない。
+	 * @param channel 出力先 WritableByteChannel
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(WritableByteChannel channel){
+		return compress(Channels.newOutputStream(channel));
+	}
+	/**
+	 * メモリ上のエントリから tar and gzip 作成.
+	 * <PRE>
+	 * TarEntrySource のデータを tar.gz にして out に書込む。out は close しない。
+	 * </PRE>
+	 * @param out 出力先 OutputStream
+	 * @param sources 書込むエントリ
+	 * @return tarエントリ名 Collection
+	 */
+	public static Collection<String> write(OutputStream out, Collection<TarEntrySource> sources){
+		Collection<String> entries = new ArrayList<>();
+		try(OutputStream gout = TarSupport.gzip(CloseShieldOutputStream.wrap(out));
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.write(taos, sources, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
 
 	/**
 	 * tar and gzip 展開.
@@ -182,47 +444,76 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @return Collection<String> 展開された tar エントリ名
 	 */
 	public static Collection<String> decompress(String targzPath, String dirPath){
+		return decompress(targzPath, dirPath, null);
+	}
+	/**
+	 * tar and gzip 展開（gzip 解凍を Executor で先読み）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return Collection<String> 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(String targzPath, String dirPath, Executor executor){
 		Collection<String> entries = new ArrayList<>();
-		String tarname = targzPath.substring(targzPath.lastIndexOf("/") + 1).replaceAll("\\.gz$", "");
-		// gzip 解凍
-		try(FileInputStream fis = new FileInputStream(targzPath);GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
-			FileOutputStream  fos = new FileOutputStream(dirPath + "/" + tarname)
-		){
-			int size = 0;
-			byte[] buf = new byte[1024];
-			while((size = gin.read(buf)) > 0){
-				fos.write(buf, 0, size);
-			}
+		// gzip 解凍 → tar展開 を１回の読込みで実行
+		try(TarArchiveInputStream tais = TarSupport.openTarGz(targzPath, executor)){
+			TarSupport.extract(tais, dirPath, entries);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		// tar展開
-		try(FileInputStream fis = new FileInputStream(dirPath + "/" + tarname);	TarArchiveInputStream tais = new TarArchiveInputStream(fis)){
-			ArchiveEntry entry = null;
-			while((entry = tais.getNextEntry()) != null){
-				File file = new File(dirPath + "/" + entry.getName());
-				if (entry.isDirectory()){
-					file.mkdirs();
-					entries.add(entry.getName());
-					continue;
-				}
-				if (!file.getParentFile().exists()){ file.getParentFile().mkdirs(); }
-				try(FileOutputStream fos = new FileOutputStream(file);
-						BufferedOutputStream bos = new BufferedOutputStream(fos)){
-					int size = 0;
-					byte[] buf = new byte[1024];
-					while((size = tais.read(buf)) > 0){
-						bos.write(buf, 0, size);
-					}
-					entries.add(entry.getName());
-				}
-			}
+		return entries;
+	}
+	/**
+	 * 分割 tar and gzip 展開.
+	 * <PRE>
+	 * volumeCompress で作成したボリュームを、サイドカーファイル targzPath + TarVolumeIndex.SUFFIX に従ってボリュームごとに並列に展開する。
+	 * 分割したファイルは、各ボリュームの部分をファイル中のオフセットに書込んで復元する。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param threads 展開スレッド数
+	 * @return Collection<String> 展開された tar エントリ名、分割したファイルは元のエントリ名
+	 */
+	public static Collection<String> decompressVolumes(String targzPath, String dirPath, int threads){
+		return TarVolumes.extract(targzPath, dirPath, threads);
+	}
+	/**
+	 * tar and gzip 展開（InputStream 入力）.
+	 * in は close しない。
+	 * @param in tar.gz を読む InputStream
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return Collection<String> 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(InputStream in, String dirPath){
+		Collection<String> entries = new ArrayList<>();
+		try(InputStream gin = TarSupport.gunzip(CloseShieldInputStream.wrap(in));
+			TarArchiveInputStream tais = TarSegmentInputStream.of(gin)
+		){
+			TarSupport.extract(tais, dirPath, entries);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
-		new File(dirPath + "/" + tarname).delete();
 		return entries;
 	}
+	/**
+	 * tar and gzip 展開（ReadableByteChannel 入力）.
+	 * channel は close しない。
+	 * @param channel tar.gz を読む ReadableByteChannel
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return Collection<String> 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(ReadableByteChannel channel, String dirPath){
+		return decompress(new BufferedInputStream(Channels.newInputStream(channel), TarSupport.BUFFER_SIZE), dirPath);
+	}
+	/**
+	 * tar and gzip 展開（ByteBuffer 入力）.
+	 * @param buffer tar.gz のバイト列、position から limit まで。position は変更しない。
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return Collection<String> 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(ByteBuffer buffer, String dirPath){
+		return decompress(TarSupport.newInputStream(buffer), dirPath);
+	}
 
 	/**
 	 * tar and gzip エントリ名コレクション.
@@ -230,28 +521,20 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @return Collection<String>
 	 */
 	public static Collection<String> viewPath(String targzPath){
+		return viewPath(targzPath, null);
+	}
+	/**
+	 * tar and gzip エントリ名コレクション（gzip 解凍を Executor で先読み）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return Collection<String>
+	 */
+	public static Collection<String> viewPath(String targzPath, Executor executor){
 		Collection<String> entries = new ArrayList<>();
-		try(	FileInputStream fis = new FileInputStream(targzPath);
-				GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
-				PipedOutputStream pos = new PipedOutputStream();
-				PipedInputStream pin = new PipedInputStream();
-				TarArchiveInputStream tais = new TarArchiveInputStream(pin)
-		){
-			pin.connect(pos);
-			new Thread(()->{
-				try{
-					int size = 0;
-					byte[] buf = new byte[1024];
-					while((size = gin.read(buf)) >= 0){
-						pos.write(buf, 0, size);
-						pos.flush();
-					}
-				}catch(IOException e){
-					throw new RuntimeException(e.getMessage(), e);
-				}
-			}).start();
+		try(TarArchiveInputStream tais = TarSupport.openTarGz(targzPath, executor)){
 			ArchiveEntry entry = null;
 			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryListed(entry);
 				entries.add(entry.getName());
 			}
 		}catch(IOException ex){
@@ -265,34 +548,7 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @return Collection<ArchiveEntry>
 	 */
 	public static Collection<ArchiveEntry> entries(String targzPath){
-		Collection<ArchiveEntry> entries = new ArrayList<>();
-		try(	FileInputStream fis = new FileInputStream(targzPath);
-				GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
-				PipedOutputStream pos = new PipedOutputStream();
-				PipedInputStream pin = new PipedInputStream();
-				TarArchiveInputStream tais = new TarArchiveInputStream(pin)
-		){
-			pin.connect(pos);
-			new Thread(()->{
-				try{
-					int size = 0;
-					byte[] buf = new byte[1024];
-					while((size = gin.read(buf)) >= 0){
-						pos.write(buf, 0, size);
-						pos.flush();
-					}
-				}catch(IOException e){
-					throw new RuntimeException(e.getMessage(), e);
-				}
-			}).start();
-			ArchiveEntry entry = null;
-			while((entry = tais.getNextEntry()) != null){
-				entries.add(entry);
-			}
-		}catch(IOException ex){
-			throw new RuntimeException(ex.getMessage(), ex);
-		}
-		return entries;
+		return entries(targzPath, e->true, null);
 	}
 	/**
 	 * Predicate→ArchiveEntryコレクション.
@@ -301,36 +557,22 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @return Collection<ArchiveEntry>
 	 */
 	public static Collection<ArchiveEntry> entries(String targzPath, Predicate<ArchiveEntry> p){
+		return entries(targzPath, p, null);
+	}
+	/**
+	 * Predicate→ArchiveEntryコレクション（gzip 解凍を Executor で先読み）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param p Predicate<ArchiveEntry> ファイルのArchiveEntry の Predicate
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return Collection<ArchiveEntry>
+	 */
+	public static Collection<ArchiveEntry> entries(String targzPath, Predicate<ArchiveEntry> p, Executor executor){
 		Collection<ArchiveEntry> entries = new ArrayList<>();
-		try(	FileInputStream fis = new FileInputStream(targzPath);
-				GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
-				PipedOutputStream pos = new PipedOutputStream();
-				PipedInputStream pin = new PipedInputStream();
-				TarArchiveInputStream tais = new TarArchiveInputStream(pin)
-		){
-			pin.connect(pos);
-			try{
-				Thread th = new Thread(()->{
-					try{
-						int size = 0;
-						byte[] buf = new byte[1024];
-						while((size = gin.read(buf)) >= 0){
-							pos.write(buf, 0, size);
-							pos.flush();
-						}
-					}catch(NullPointerException e){
-						throw new RuntimeException(e.getMessage(), e);
-					}catch(IOException e){
-						throw new RuntimeException(e.getMessage(), e);
-					}
-				});
-				th.start();
-				th.join();
-			}catch(InterruptedException e1){
-			}
+		try(TarArchiveInputStream tais = TarSupport.openTarGz(targzPath, executor)){
 			ArchiveEntry entry = null;
 			while((entry = tais.getNextEntry()) != null){
-				if (p.equals(entry)) entries.add(entry);
+				TarMonitor.entryListed(entry);
+				if (p.test(entry)) entries.add(entry);
 			}
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
@@ -344,48 +586,122 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 * @param p Predicate<ArchiveEntry> 展開するファイルのArchiveEntry の Predicate
 	 */
 	public static void predicateOpen(String targzPath, String dirPath, Predicate<ArchiveEntry> p){
-		try(	FileInputStream fis = new FileInputStream(targzPath);
-				GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
-				PipedOutputStream pos = new PipedOutputStream();
-				PipedInputStream pin = new PipedInputStream();
-				TarArchiveInputStream tais = new TarArchiveInputStream(pin)
-		){
-			pin.connect(pos);
-			try{
-				Thread th = new Thread(()->{
-					try{
-						int size = 0;
-						byte[] buf = new byte[1024];
-						while((size = gin.read(buf)) >= 0){
-							pos.write(buf, 0, size);
-							pos.flush();
-						}
-					}catch(NullPointerException e){
-						throw new RuntimeException(e.getMessage(), e);
-					}catch(IOException e){
-						throw new RuntimeException(e.getMessage(), e);
-					}
-				});
-				th.start();
-				th.join();
-			}catch(InterruptedException e1){
-			}
-			ArchiveEntry entry = null;
-			while((entry = tais.getNextEntry()) != null){
-				if (p.test(entry) && !entry.isDirectory()){
-					String[] names = entry.getName().split("/");
-					try(FileOutputStream fos = new FileOutputStream(dirPath + "/" + names[names.length-1]);
-						BufferedOutputStream bos = new BufferedOutputStream(fos)){
-						int size = 0;
-						byte[] buf = new byte[1024];
-						while((size = tais.read(buf)) > 0){
-							bos.write(buf, 0, size);
-						}
-					}catch(IOException e){
-						throw new RuntimeException(e.getMessage(), e);
-					}
-				}
-			}
+		predicateOpen(targzPath, dirPath, p, null);
+	}
+	/**
+	 * Predicateファイル展開（gzip 解凍を Executor で先読み）.
+	 * 一致したファイルはエントリ名の最後の要素（ファイル名）で展開する。
+	 * @param targzPath targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param dirPath 展開先パス
+	 * @param p Predicate<ArchiveEntry> 展開するファイルのArchiveEntry の Predicate
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 */
+	public static void predicateOpen(String targzPath, String dirPath, Predicate<ArchiveEntry> p, Executor executor){
+		extract(targzPath, Collections.singletonList(TarExtractRule.of(p, dirPath).flatten()), executor);
+	}
+	/**
+	 * 規則による選択展開.
+	 * <PRE>
+	 * １回の解凍で、各エントリを条件に一致したすべての規則の展開先に書込む。
+	 * すべての規則が対象件数の決まった規則（エントリ名指定、limit 指定）の場合、
+	 * すべての規則が完了した時点で残りを解凍せずに終了する。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param rules 選択展開の規則
+	 * @return 規則ごとの展開した tarエントリ名、rules と同じ順序
+	 */
+	public static List<List<String>> extract(String targzPath, List<TarExtractRule> rules){
+		return extract(targzPath, rules, null);
+	}
+	/**
+	 * 規則による選択展開（gzip 解凍を Executor で先読み）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param rules 選択展開の規則
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return 規則ごとの展開した tarエントリ名、rules と同じ順序
+	 */
+	public static List<List<String>> extract(String targzPath, List<TarExtractRule> rules, Executor executor){
+		try(TarArchiveInputStream tais = TarSupport.openTarGz(targzPath, executor)){
+			return TarSupport.extract(tais, rules, ()->TarSupport.openTarGz(targzPath, null));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * 検証（展開しない）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @return TarVerifyResult
+	 */
+	public static TarVerifyResult verify(String targzPath){
+		return verify(targzPath, null, null);
+	}
+	/**
+	 * 検証（マニフェストと比較）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @return TarVerifyResult
+	 */
+	public static TarVerifyResult verify(String targzPath, TarManifest manifest){
+		return verify(targzPath, manifest, null);
+	}
+	/**
+	 * 検証（gzip 解凍を Executor で先読み）.
+	 * <PRE>
+	 * ファイルを書込まずに全エントリを読み、エントリごとのチェックサム（CRC32C、Java 8 では CRC32）を計算する。
+	 * tar ヘッダーのチェックサム、各 gzip メンバーのトレーラーの CRC32・ISIZE を検査する。
+	 * manifest を指定した場合は、エントリのサイズと、記録された SHA-256 を比較する。
+	 * （incrementalCompress で hash=true、base=null で作成したアーカイブとサイドカーファイル）
+	 * 破損はエラーとして結果に記録し、アーカイブファイルを開けない場合だけ例外にする。
+	 * 例）
+	 *    TarVerifyResult result = TarGzipProcessor.verify(targzPath, TarManifest.of(targzPath), executor);
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return TarVerifyResult
+	 */
+	public static TarVerifyResult verify(String targzPath, TarManifest manifest, Executor executor){
+		return TarVerifier.verifyTarGz(targzPath, manifest, executor);
+	}
+	/**
+	 * tar and gzip エントリの逐次 Stream.
+	 * <PRE>
+	 * エントリを解凍しながら１件ずつ返す。全エントリを Collection に保持しないので、
+	 * filter／findFirst 等で途中終了でき、エントリ数によらず一定のメモリで処理できる。
+	 * 各要素の getInputStream で、Stream が次の要素に進むまでエントリのデータを読める。Stream は必ず close すること。
+	 * 例）
+	 *    try(Stream<TarStreamEntry> stream = TarGzipProcessor.stream(targzPath)){
+	 *        Optional<ArchiveEntry> entry = stream.map(TarStreamEntry::getEntry).filter(p).findFirst();
+	 *    }
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(String targzPath){
+		return stream(targzPath, null);
+	}
+	/**
+	 * tar and gzip エントリの逐次 Stream（gzip 解凍を Executor で先読み）.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(String targzPath, Executor executor){
+		try{
+			return TarSupport.stream(TarSupport.openTarGz(targzPath, executor));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * tar and gzip エントリの Stream（InputStream 入力）.
+	 * Stream を close しても in は close しない。
+	 * @param in tar.gz を読む InputStream
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(InputStream in){
+		try{
+			return TarSupport.stream(TarSegmentInputStream.of(TarSupport.gunzip(CloseShieldInputStream.wrap(in))));
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
@@ -397,11 +713,13 @@ public interface TarGzipProcessor extends Supplier<Collection<FileCollection>>{
 	 */
 	public static void openGz(String gzipPath, String dirPath){
 		String tarname = gzipPath.substring(gzipPath.lastIndexOf("/") + 1).replaceAll("\\.gz$", "");
-		try(FileInputStream fis = new FileInputStream(gzipPath);GzipCompressorInputStream gin = new GzipCompressorInputStream(fis);
+		try(FileInputStream fis = new FileInputStream(gzipPath);
+			BufferedInputStream bis = new BufferedInputStream(fis, TarSupport.BUFFER_SIZE);
+			GzipCompressorInputStream gin = new GzipCompressorInputStream(bis);
 			FileOutputStream  fos = new FileOutputStream(dirPath + "/" + tarname)
 		){
 			int size = 0;
-			byte[] buf = new byte[1024];
+			byte[] buf = new byte[TarSupport.BUFFER_SIZE];
 			while((size = gin.read(buf)) > 0){
 				fos.write(buf, 0, size);
 			}
@@ -0,0 +1,133 @@
+package org.yipuran.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.yipuran.file.FileCollection;
+
+/**
+ * 差分アーカイブ処理.
+ */
+final class TarIncremental{
+	private TarIncremental(){}
+
+	/**
+	 * 差分の tar 書込み.
+	 * <PRE>
+	 * 基準のマニフェストとサイズ・更新日時が同じファイルは書込まない。
+	 * hash=true の場合、サイズが同じで更新日時だけが異なるファイルは SHA-256 を比較し、同じなら書込まない。
+	 * 基準にあって走査で見つからないエントリ、ファイル⇔ディレクトリが入れ替わったエントリは削除として記録する。
+	 * </PRE>
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param base 基準のマニフェスト、null の場合は全体を書込む。
+	 * @param hash SHA-256 を記録する場合 true
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 * @return 書込んだアーカイブのマニフェスト
+	 */
+	static TarManifest write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, TarManifest base,
+			boolean hash, Collection<String> entries){
+		TarSupport.configure(taos);
+		MessageDigest digest = hash ? TarSupport.sha256() : null;
+		List<TarManifest.Record> records = new ArrayList<>();
+		List<String> deleted = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		byte[] buf = TarSupport.buffer();
+		try{
+			TarSupport.walk(fileCollections, p, (f, name)->{
+				try{
+					TarArchiveEntry entry = new TarArchiveEntry(f, name);
+					String key = entry.getName();
+					boolean directory = entry.isDirectory();
+					long size = directory ? 0 : entry.getSize();
+					long lastModified = f.lastModified();
+					seen.add(key);
+					TarManifest.Record prev = base==null ? null : base.getRecord(key);
+					if (prev != null && prev.isDirectory() != directory){
+						deleted.add(key);
+						prev = null;
+					}
+					if (prev != null){
+						if (directory){
+							records.add(new TarManifest.Record(key, true, 0, lastModified, null));
+							return;
+						}
+						if (prev.getSize()==size){
+							if (prev.getLastModified()==lastModified && (digest==null || prev.hash() != null)){
+								records.add(prev);
+								return;
+							}
+							if (digest != null){
+								byte[] h = TarSupport.digest(f, digest, buf);
+								if (prev.getLastModified()==lastModified || Arrays.equals(h, prev.hash())){
+									records.add(new TarManifest.Record(key, false, size, lastModified, h));
+									return;
+								}
+							}
+						}
+					}
+					if (digest != null) digest.reset();
+					TarSupport.put(taos, entry, f, buf, directory ? null : digest, null);
+					records.add(new TarManifest.Record(key, directory, size, lastModified, directory || digest==null ? null : digest.digest()));
+					entries.add(key);
+				}catch(IOException ex){
+					throw new RuntimeException(ex);
+				}
+			});
+		}finally{
+			TarSupport.release(buf);
+		}
+		if (base != null){
+			base.getRecords().stream().map(TarManifest.Record::getName).filter(n->!seen.contains(n)).forEach(deleted::add);
+		}
+		return new TarManifest(records, deleted);
+	}
+
+	/**
+	 * マニフェストに記録された削除の適用.
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param manifest 差分アーカイブのマニフェスト
+	 * @throws IOException 削除するパスが展開先ディレクトリの外、または展開先ディレクトリ自身を指す場合
+	 */
+	static void applyDeletions(String dirPath, TarManifest manifest) throws IOException{
+		// マニフェストはアーカイブから読むので、展開先の外を指す名前があれば何も削除しない
+		Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+		List<Path> targets = new ArrayList<>();
+		for(String name : manifest.getDeleted()){
+			Path path = TarSupport.resolve(dirPath, name);
+			if (path.equals(dir)) throw new IOException("Deleted entry is the target directory : " + name);
+			targets.add(path);
+		}
+		for(Path path : targets){
+			if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)){
+				List<Path> paths;
+				try(Stream<Path> s = Files.walk(path)){
+					paths = s.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+				}
+				for(Path p : paths){
+					Files.delete(p);
+				}
+			}else{
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.yipuran.compress;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * TarJobs で実行するジョブ.
+ * <PRE>
+ * 処理の結果を受け取る CompletableFuture。
+ * cancel すると、処理はエントリの区切り、またはストリームの読み書きの区切りで中断し、
+ * TarJobPolicy の指定に従ってジョブが作成した出力を削除する。
+ * cancel(true) の場合は、帯域制限などで待っている実行スレッドにも割込む。
+ * CompletableFuture は cancel した時点で完了するので、中断と出力の削除を待つ場合は terminated() を使用する。
+ * 例）
+ *    TarJob<Collection<String>> job = jobs.decompressTarGz(targzPath, dirPath, TarJobPolicy.of());
+ *    ...
+ *    job.cancel(true);
+ *    job.terminated().join();
+ * </PRE>
+ * @param <T> 処理結果の型
+ */
+public final class TarJob<T> extends CompletableFuture<T>{
+	private final TarJobControl control;
+	private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+	private final Object lock = new Object();
+	private Thread runner;
+
+	TarJob(TarJobControl control){
+		this.control = control;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning){
+		control.cancel();
+		if (mayInterruptIfRunning){
+			synchronized(lock){
+				if (runner != null) runner.interrupt();
+			}
+		}
+		return super.cancel(mayInterruptIfRunning);
+	}
+	/**
+	 * 処理の終了.
+	 * @return 処理が終了し、失敗・取消しの場合は出力の削除も終わった時点で完了する CompletableFuture
+	 */
+	public CompletableFuture<Void> terminated(){
+		return terminated.thenApply(v->v);
+	}
+
+	/**
+	 * 実行開始.
+	 * @return 取消されていない場合 true、実行スレッドを割込みの対象にする
+	 */
+	boolean start(){
+		synchronized(lock){
+			if (control.isCancelled()) return false;
+			runner = Thread.currentThread();
+			return true;
+		}
+	}
+	/**
+	 * 実行終了.
+	 * 実行スレッドを割込みの対象から外し、cancel(true) による割込み状態を消す。
+	 */
+	void stop(){
+		synchronized(lock){
+			runner = null;
+		}
+		Thread.interrupted();
+	}
+	void terminate(){
+		terminated.complete(null);
+	}
+}
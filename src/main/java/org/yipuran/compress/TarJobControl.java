@@ -0,0 +1,120 @@
+package org.yipuran.compress;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+/**
+ * 実行中ジョブの取消し・帯域制限・出力の記録.
+ * <PRE>
+ * TarMonitor に実行スレッドで bind され、エントリの開始ごと、ストリームの読み書きごとに呼ばれる。
+ * 取消されていれば CancellationException を投げて処理を中断する。
+ * ストリームはワーカースレッドから読み書きされることもあるので、スレッドセーフにしている。
+ * </PRE>
+ */
+final class TarJobControl{
+	/** 帯域制限で待つときの、取消しを確認する間隔 */
+	private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private final long bytesPerSecond;
+	private final String dirPath;
+	private final List<File> created = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean cancelled;
+	private long startNanos;
+	private long bytes;
+
+	/**
+	 * コンストラクタ.
+	 * @param bytesPerSecond １秒あたりのバイト数、0 の場合は制限なし
+	 * @param dirPath 展開先ディレクトリPATH、展開したファイルを記録する。展開以外は null
+	 */
+	TarJobControl(long bytesPerSecond, String dirPath){
+		this.bytesPerSecond = bytesPerSecond;
+		this.dirPath = dirPath;
+	}
+
+	void cancel(){
+		cancelled = true;
+	}
+	boolean isCancelled(){
+		return cancelled;
+	}
+	/**
+	 * 取消しの確認.
+	 * @throws CancellationException 取消されている場合
+	 */
+	void check(){
+		if (cancelled) throw new CancellationException("Job cancelled");
+	}
+	/**
+	 * エントリの開始.
+	 * 展開先に存在しないファイルを、ジョブが作成したファイルとして記録する。
+	 * 展開で親ディレクトリも作成されるので、存在しない親ディレクトリ（展開先ディレクトリまで）も親から順に記録する。
+	 * @param entry 書込み・展開するエントリ
+	 */
+	void entryStarted(ArchiveEntry entry){
+		check();
+		if (dirPath==null) return;
+		Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+		Deque<File> missing = new ArrayDeque<>();
+		for(Path p = dir.resolve(entry.getName()).normalize(); p != null && p.startsWith(dir) && !Files.exists(p, LinkOption.NOFOLLOW_LINKS); p = p.getParent()){
+			missing.push(p.toFile());
+		}
+		created.addAll(missing);
+	}
+	/**
+	 * 作成したファイルの記録.
+	 * @param file ジョブが作成するファイル
+	 */
+	void created(File file){
+		created.add(file);
+	}
+	/**
+	 * 作成したファイルの削除.
+	 * 作成した順の逆に削除し、ディレクトリは空になった場合だけ削除する。
+	 */
+	void deleteCreated(){
+		synchronized(created){
+			for(int i=created.size() - 1; i >= 0; i--){
+				created.get(i).delete();
+			}
+			created.clear();
+		}
+	}
+	/**
+	 * 読み書きしたバイト数.
+	 * 帯域制限がある場合は、累積バイト数が制限を超えない時刻まで待つ。
+	 * @param n 読み書きしたバイト数
+	 * @throws CancellationException 取消されている場合、待っている間に割込まれた場合
+	 */
+	void transferred(long n){
+		check();
+		if (bytesPerSecond <= 0 || n <= 0) return;
+		long due;
+		synchronized(this){
+			if (bytes==0) startNanos = System.nanoTime();
+			bytes += n;
+			due = startNanos + (long)(bytes * 1e9 / bytesPerSecond);
+		}
+		long wait;
+		while((wait = due - System.nanoTime()) > 0){
+			try{
+				TimeUnit.NANOSECONDS.sleep(Math.min(wait, SLICE_NANOS));
+			}catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Job interrupted");
+			}
+			check();
+		}
+	}
+}
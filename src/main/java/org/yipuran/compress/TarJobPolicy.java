@@ -0,0 +1,57 @@
+package org.yipuran.compress;
+
+/**
+ * 非同期ジョブの実行条件.
+ * <PRE>
+ * TarJobs で実行するジョブごとの、入出力の帯域制限と、失敗・取消し時の出力の扱いを指定する。
+ * 例）
+ *    TarJobPolicy policy = TarJobPolicy.of().bandwidth(20L * 1024 * 1024).keepPartialOutput();
+ * </PRE>
+ */
+public final class TarJobPolicy{
+	private static final TarJobPolicy DEFAULT = new TarJobPolicy(0, false);
+	private final long bytesPerSecond;
+	private final boolean keepPartialOutput;
+
+	private TarJobPolicy(long bytesPerSecond, boolean keepPartialOutput){
+		this.bytesPerSecond = bytesPerSecond;
+		this.keepPartialOutput = keepPartialOutput;
+	}
+	/**
+	 * 既定の実行条件.
+	 * 帯域制限なし、失敗・取消し時はジョブが作成した出力を削除する。
+	 * @return TarJobPolicy
+	 */
+	public static TarJobPolicy of(){
+		return DEFAULT;
+	}
+	/**
+	 * 帯域制限.
+	 * アーカイブファイル、対象ファイル・展開するファイルの読み書きの合計を、１秒あたり bytesPerSecond 以下にする。
+	 * @param bytesPerSecond １秒あたりのバイト数、0 の場合は制限なし
+	 * @return 帯域制限を指定した TarJobPolicy
+	 */
+	public TarJobPolicy bandwidth(long bytesPerSecond){
+		if (bytesPerSecond < 0) throw new IllegalArgumentException("bytesPerSecond must not be negative : " + bytesPerSecond);
+		return new TarJobPolicy(bytesPerSecond, keepPartialOutput);
+	}
+	/**
+	 * 失敗・取消し時に、途中までの出力を削除せずに残す。
+	 * @return 出力を残す TarJobPolicy
+	 */
+	public TarJobPolicy keepPartialOutput(){
+		return new TarJobPolicy(bytesPerSecond, true);
+	}
+	/**
+	 * @return １秒あたりのバイト数、0 の場合は制限なし
+	 */
+	public long getBandwidth(){
+		return bytesPerSecond;
+	}
+	/**
+	 * @return 失敗・取消し時に途中までの出力を残す場合 true
+	 */
+	public boolean isKeepPartialOutput(){
+		return keepPartialOutput;
+	}
+}
@@ -0,0 +1,198 @@
+package org.yipuran.compress;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 圧縮・展開の非同期実行.
+ * <PRE>
+ * TarProcessor / TarGzipProcessor の処理を TarJob（CompletableFuture）として実行する。
+ * 同時に実行するジョブ数を maxConcurrent に制限し、超えたジョブは実行中のジョブの終了を待つ。
+ * 実行スレッドは、仮想スレッドを使える実行環境（Java 21 以降）では仮想スレッド、それ以外は maxConcurrent 個のスレッドプール。
+ * ジョブごとに TarJobPolicy で帯域制限と、失敗・取消し時の出力の扱いを指定する。
+ * 取消しと帯域制限は、ジョブの実行スレッドで読み書きするストリームと、エントリの区切りで行われる。
+ * 例）
+ *    try(TarJobs jobs = TarJobs.of(8)){
+ *        TarJob<Collection<String>> job = jobs.compress(processor, targzPath, TarJobPolicy.of().bandwidth(50L * 1024 * 1024));
+ *        job.thenAccept(entries->logger.info("done : " + entries.size()));
+ *        ...
+ *        job.cancel(true);
+ *    }
+ * </PRE>
+ */
+public final class TarJobs implements Closeable{
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+	private final ExecutorService executor;
+	private final boolean shutdown;
+	private final Semaphore permits;
+
+	private TarJobs(ExecutorService executor, boolean shutdown, int maxConcurrent){
+		this.executor = executor;
+		this.shutdown = shutdown;
+		this.permits = new Semaphore(maxConcurrent, true);
+	}
+	/**
+	 * TarJobs 生成.
+	 * @param maxConcurrent 同時に実行するジョブ数
+	 * @return TarJobs
+	 */
+	public static TarJobs of(int maxConcurrent){
+		if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be positive : " + maxConcurrent);
+		ExecutorService executor = virtualThreadExecutor();
+		if (executor==null){
+			executor = Executors.newFixedThreadPool(maxConcurrent, r->{
+				Thread t = new Thread(r, "TarJobs-" + SEQUENCE.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return new TarJobs(executor, true, maxConcurrent);
+	}
+	/**
+	 * TarJobs 生成（ExecutorService 指定）.
+	 * @param maxConcurrent 同時に実行するジョブ数
+	 * @param executor ジョブを実行する ExecutorService、終了は呼出し側で行う。
+	 * @return TarJobs
+	 */
+	public static TarJobs of(int maxConcurrent, ExecutorService executor){
+		if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be positive : " + maxConcurrent);
+		return new TarJobs(executor, false, maxConcurrent);
+	}
+	/**
+	 * Java 21 以降の Executors#newVirtualThreadPerTaskExecutor.
+	 * Java 8 でコンパイルするのでリフレクションで呼ぶ。
+	 * @return 仮想スレッドの ExecutorService、使えない場合は null
+	 */
+	private static ExecutorService virtualThreadExecutor(){
+		try{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException | RuntimeException ex){
+			return null;
+		}
+	}
+
+	/**
+	 * tar 圧縮ジョブ.
+	 * 失敗・取消し時は、作成途中の tar ファイルを削除する。
+	 * @param processor TarProcessor
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @param policy TarJobPolicy
+	 * @return tarエントリ名 Collection の TarJob
+	 */
+	public TarJob<Collection<String>> compress(TarProcessor processor, String tarPath, TarJobPolicy policy){
+		TarJobControl control = new TarJobControl(policy.getBandwidth(), null);
+		return submit(()->{
+			control.created(new File(tarPath));
+			return processor.compress(tarPath);
+		}, control, policy);
+	}
+	/**
+	 * tar and gzip 圧縮ジョブ.
+	 * 失敗・取消し時は、作成途中の tar.gz ファイルを削除する。
+	 * @param processor TarGzipProcessor
+	 * @param targzPath 作成する tar and gzip ファイルパス、 *.tar.gz
+	 * @param policy TarJobPolicy
+	 * @return tarエントリ名 Collection の TarJob
+	 */
+	public TarJob<Collection<String>> compress(TarGzipProcessor processor, String targzPath, TarJobPolicy policy){
+		TarJobControl control = new TarJobControl(policy.getBandwidth(), null);
+		return submit(()->{
+			control.created(new File(targzPath));
+			return processor.compress(targzPath);
+		}, control, policy);
+	}
+	/**
+	 * tar 展開ジョブ.
+	 * 失敗・取消し時は、このジョブが作成したファイル・ディレクトリを削除する。展開前からあったファイルは残す。
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param policy TarJobPolicy
+	 * @return 展開された tar エントリ名 Collection の TarJob
+	 */
+	public TarJob<Collection<String>> decompressTar(String tarPath, String dirPath, TarJobPolicy policy){
+		return submit(()->TarProcessor.decompress(tarPath, dirPath), new TarJobControl(policy.getBandwidth(), dirPath), policy);
+	}
+	/**
+	 * tar and gzip 展開ジョブ.
+	 * 失敗・取消し時は、このジョブが作成したファイル・ディレクトリを削除する。展開前からあったファイルは残す。
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param policy TarJobPolicy
+	 * @return 展開された tar エントリ名 Collection の TarJob
+	 */
+	public TarJob<Collection<String>> decompressTarGz(String targzPath, String dirPath, TarJobPolicy policy){
+		return submit(()->TarGzipProcessor.decompress(targzPath, dirPath), new TarJobControl(policy.getBandwidth(), dirPath), policy);
+	}
+	/**
+	 * 任意の処理のジョブ.
+	 * <PRE>
+	 * task の中で実行スレッドから呼ぶ圧縮・展開の処理に、取消しと帯域制限が効く。
+	 * 出力先が分からないので、失敗・取消し時の出力の削除は行わない。
+	 * 例）
+	 *    TarJob<List<List<String>>> job = jobs.submit(()->TarGzipProcessor.extract(targzPath, rules), TarJobPolicy.of());
+	 * </PRE>
+	 * @param task 実行する処理
+	 * @param policy TarJobPolicy
+	 * @param <T> 処理結果の型
+	 * @return 処理結果の TarJob
+	 */
+	public <T> TarJob<T> submit(Callable<T> task, TarJobPolicy policy){
+		return submit(task, new TarJobControl(policy.getBandwidth(), null), policy);
+	}
+
+	private <T> TarJob<T> submit(Callable<T> task, TarJobControl control, TarJobPolicy policy){
+		TarJob<T> job = new TarJob<>(control);
+		try{
+			executor.execute(()->run(job, task, control, policy));
+		}catch(RejectedExecutionException ex){
+			job.completeExceptionally(ex);
+			job.terminate();
+		}
+		return job;
+	}
+	private <T> void run(TarJob<T> job, Callable<T> task, TarJobControl control, TarJobPolicy policy){
+		T result = null;
+		Throwable failure = null;
+		boolean acquired = false;
+		try{
+			if (!job.isDone()){
+				permits.acquire();
+				acquired = true;
+				if (job.start()){
+					TarMonitor.bind(control);
+					try{
+						result = task.call();
+					}finally{
+						TarMonitor.unbind();
+						job.stop();
+					}
+				}
+			}
+		}catch(Throwable ex){
+			failure = ex;
+		}finally{
+			if (acquired) permits.release();
+		}
+		if (failure != null || !job.complete(result)){
+			if (!policy.isKeepPartialOutput()) control.deleteCreated();
+			if (failure != null) job.completeExceptionally(failure);
+		}
+		job.terminate();
+	}
+
+	/**
+	 * 終了.
+	 * of(maxConcurrent) で生成した場合はスレッドを終了する。実行中・待機中のジョブは最後まで実行する。
+	 */
+	@Override
+	public void close(){
+		if (shutdown) executor.shutdown();
+	}
+}
@@ -0,0 +1,78 @@
+package org.yipuran.compress;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * 圧縮・展開の進捗リスナー.
+ * <PRE>
+ * register で登録すると、以降のすべての圧縮・展開・一覧の処理から呼ばれる。
+ * 登録が無い場合はバイト数、処理時間を計測しない。
+ * 呼出しは処理を実行しているスレッド（並列処理ではワーカースレッド）から行われるので、スレッドセーフに実装すること。
+ * 処理時間に影響するので、重い処理、例外を投げる処理をしないこと。
+ * 累積値は TarMetrics で集計できる。
+ * 例）
+ *    TarListener.register(new TarListener(){
+ *        @Override
+ *        public void entryFinished(TarArchiveEntry entry){
+ *            logger.info("done : " + entry.getName());
+ *        }
+ *    });
+ * </PRE>
+ */
+public interface TarListener{
+	/**
+	 * 処理時間の区分.
+	 */
+	public enum Phase{
+		/** ディレクトリ走査 */
+		WALK,
+		/** 入力の読込み、圧縮時は対象ファイル、展開・一覧時はアーカイブファイル */
+		READ,
+		/** 圧縮・解凍 */
+		CODEC,
+		/** 出力の書込み、圧縮時はアーカイブファイル、展開時は展開するファイル */
+		WRITE
+	}
+
+	/**
+	 * エントリの処理開始.
+	 * @param entry 書込み・展開・一覧するエントリ
+	 */
+	default void entryStarted(TarArchiveEntry entry){}
+	/**
+	 * エントリの処理終了.
+	 * @param entry 書込み・展開・一覧したエントリ
+	 */
+	default void entryFinished(TarArchiveEntry entry){}
+	/**
+	 * エントリのデータ（圧縮前）の処理.
+	 * @param n 読込んだ対象ファイル、または展開したファイルのバイト数
+	 */
+	default void rawBytes(long n){}
+	/**
+	 * アーカイブファイルの入出力.
+	 * @param n 書込んだ、または読込んだアーカイブファイルのバイト数
+	 */
+	default void archiveBytes(long n){}
+	/**
+	 * 処理時間.
+	 * @param phase 処理時間の区分
+	 * @param nanos 処理時間（ナノ秒）
+	 */
+	default void elapsed(Phase phase, long nanos){}
+
+	/**
+	 * リスナー登録.
+	 * @param listener TarListener
+	 */
+	public static void register(TarListener listener){
+		TarMonitor.register(listener);
+	}
+	/**
+	 * リスナー登録解除.
+	 * @param listener 登録した TarListener
+	 */
+	public static void unregister(TarListener listener){
+		TarMonitor.unregister(listener);
+	}
+}
@@ -0,0 +1,194 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 差分アーカイブのマニフェスト.
+ * <PRE>
+ * アーカイブ作成時点の対象ファイルの状態（エントリ名、サイズ、更新日時、任意で SHA-256）と、
+ * 前回のマニフェストから削除されたエントリ名を保持する。
+ * TarGzipProcessor#incrementalCompress でアーカイブと同時にサイドカーファイル（*.tar.gz.manifest）を作成し、
+ * 次回はこのマニフェストを基準に、追加・変更されたファイルだけをアーカイブする。
+ * 例）
+ *    // 初回（全体）
+ *    processor.incrementalCompress("/backup/full.tar.gz", null, null, false);
+ *    // ２回目以降（差分）
+ *    TarManifest base = TarManifest.of("/backup/full.tar.gz");
+ *    processor.incrementalCompress("/backup/inc1.tar.gz", base, null, false);
+ *    // 復元
+ *    TarGzipProcessor.restore(dirPath, Arrays.asList("/backup/full.tar.gz", "/backup/inc1.tar.gz"));
+ * </PRE>
+ */
+public final class TarManifest{
+	/** サイドカーファイル拡張子 */
+	public static final String SUFFIX = ".manifest";
+
+	private static final int MAGIC = 0x54474d46;
+	private static final int VERSION = 1;
+
+	private final Map<String, Record> records;
+	private final List<String> deleted;
+
+	TarManifest(Collection<Record> records, List<String> deleted){
+		Map<String, Record> map = new LinkedHashMap<>();
+		records.forEach(r->map.put(r.name, r));
+		this.records = Collections.unmodifiableMap(map);
+		this.deleted = Collections.unmodifiableList(deleted);
+	}
+
+	/**
+	 * アーカイブのサイドカーファイル読込み.
+	 * @param archivePath アーカイブのファイルパス
+	 * @return TarManifest
+	 */
+	public static TarManifest of(String archivePath){
+		return read(archivePath + SUFFIX);
+	}
+	/**
+	 * マニフェスト読込み.
+	 * @param manifestPath マニフェストファイルパス
+	 * @return TarManifest
+	 */
+	public static TarManifest read(String manifestPath){
+		try(FileInputStream fis = new FileInputStream(manifestPath);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fis, TarSupport.BUFFER_SIZE)))
+		){
+			if (in.readInt() != MAGIC) throw new IOException("Not a tar manifest : " + manifestPath);
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported manifest version : " + version);
+			int n = in.readInt();
+			List<Record> records = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				String name = in.readUTF();
+				boolean directory = in.readBoolean();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				records.add(new Record(name, directory, size, lastModified, hash.length==0 ? null : hash));
+			}
+			n = in.readInt();
+			List<String> deleted = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				deleted.add(in.readUTF());
+			}
+			return new TarManifest(records, deleted);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * マニフェスト書込み.
+	 * @param manifestPath マニフェストファイルパス
+	 */
+	public void write(String manifestPath){
+		try(FileOutputStream fos = new FileOutputStream(manifestPath);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fos, TarSupport.BUFFER_SIZE)))
+		){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(records.size());
+			for(Record r : records.values()){
+				out.writeUTF(r.name);
+				out.writeBoolean(r.directory);
+				out.writeLong(r.size);
+				out.writeLong(r.lastModified);
+				out.writeByte(r.hash==null ? 0 : r.hash.length);
+				if (r.hash != null) out.write(r.hash);
+			}
+			out.writeInt(deleted.size());
+			for(String name : deleted){
+				out.writeUTF(name);
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * @return アーカイブ作成時点の全対象の Record、走査順
+	 */
+	public Collection<Record> getRecords(){
+		return records.values();
+	}
+	/**
+	 * Record 検索.
+	 * @param name エントリ名
+	 * @return Record、存在しない場合は null
+	 */
+	public Record getRecord(String name){
+		return records.get(name);
+	}
+	/**
+	 * @return 基準のマニフェストから削除されたエントリ名、全体アーカイブの場合は空
+	 */
+	public List<String> getDeleted(){
+		return deleted;
+	}
+
+	/**
+	 * ファイル、ディレクトリ１件の状態.
+	 */
+	public static final class Record{
+		private final String name;
+		private final boolean directory;
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+
+		Record(String name, boolean directory, long size, long lastModified, byte[] hash){
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+		/**
+		 * @return エントリ名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return ディレクトリの場合 true
+		 */
+		public boolean isDirectory(){
+			return directory;
+		}
+		/**
+		 * @return ファイルサイズ、ディレクトリは 0
+		 */
+		public long getSize(){
+			return size;
+		}
+		/**
+		 * @return 更新日時（ミリ秒）
+		 */
+		public long getLastModified(){
+			return lastModified;
+		}
+		/**
+		 * @return SHA-256、記録していない場合は null
+		 */
+		public byte[] getHash(){
+			return hash==null ? null : hash.clone();
+		}
+		byte[] hash(){
+			return hash;
+		}
+	}
+}
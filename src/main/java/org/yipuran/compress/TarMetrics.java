@@ -0,0 +1,153 @@
+package org.yipuran.compress;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * 圧縮・展開の累積メトリクス.
+ * <PRE>
+ * TarListener として登録し、エントリ数、圧縮前・アーカイブのバイト数、処理時間の区分ごとの時間を LongAdder で集計する。
+ * registerMBean で JMX（TarMetricsMXBean）に公開する。
+ * Micrometer 等へは、getter を参照する FunctionCounter／Gauge で登録する。
+ * 例）
+ *    TarMetrics metrics = new TarMetrics();
+ *    TarListener.register(metrics);
+ *    metrics.registerMBean("backup");
+ *    // Micrometer
+ *    FunctionCounter.builder("tar.raw.bytes", metrics, TarMetrics::getRawBytes).register(registry);
+ * </PRE>
+ */
+public final class TarMetrics implements TarListener, TarMetricsMXBean{
+	private final LongAdder entries = new LongAdder();
+	private final LongAdder rawBytes = new LongAdder();
+	private final LongAdder archiveBytes = new LongAdder();
+	private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+	private volatile long startNanos = System.nanoTime();
+	private ObjectName objectName;
+
+	/**
+	 * コンストラクタ.
+	 */
+	public TarMetrics(){
+		for(int i=0; i < nanos.length; i++){
+			nanos[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void entryFinished(TarArchiveEntry entry){
+		entries.increment();
+	}
+	@Override
+	public void rawBytes(long n){
+		rawBytes.add(n);
+	}
+	@Override
+	public void archiveBytes(long n){
+		archiveBytes.add(n);
+	}
+	@Override
+	public void elapsed(Phase phase, long nanos){
+		this.nanos[phase.ordinal()].add(nanos);
+	}
+
+	@Override
+	public long getEntries(){
+		return entries.sum();
+	}
+	@Override
+	public long getRawBytes(){
+		return rawBytes.sum();
+	}
+	@Override
+	public long getArchiveBytes(){
+		return archiveBytes.sum();
+	}
+	@Override
+	public double getRatio(){
+		long raw = rawBytes.sum();
+		return raw==0 ? 0 : (double)archiveBytes.sum() / raw;
+	}
+	@Override
+	public double getBytesPerSecond(){
+		long elapsed = System.nanoTime() - startNanos;
+		return elapsed <= 0 ? 0 : rawBytes.sum() * 1e9 / elapsed;
+	}
+	/**
+	 * 処理時間.
+	 * @param phase 処理時間の区分
+	 * @return 処理時間（ナノ秒）
+	 */
+	public long getNanos(Phase phase){
+		return nanos[phase.ordinal()].sum();
+	}
+	@Override
+	public long getWalkMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(getNanos(Phase.WALK));
+	}
+	@Override
+	public long getReadMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(getNanos(Phase.READ));
+	}
+	@Override
+	public long getCodecMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(getNanos(Phase.CODEC));
+	}
+	@Override
+	public long getWriteMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(getNanos(Phase.WRITE));
+	}
+	@Override
+	public void reset(){
+		entries.reset();
+		rawBytes.reset();
+		archiveBytes.reset();
+		for(LongAdder a : nanos){
+			a.reset();
+		}
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * JMX 登録.
+	 * ObjectName は org.yipuran.compress:type=TarMetrics,name=<i>name</i>
+	 * @param name ObjectName の name
+	 * @return 登録した ObjectName
+	 */
+	public synchronized ObjectName registerMBean(String name){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = ObjectName.getInstance("org.yipuran.compress:type=TarMetrics,name=" + ObjectName.quote(name));
+			server.registerMBean(this, on);
+			objectName = on;
+			return on;
+		}catch(JMException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * JMX 登録解除.
+	 */
+	public synchronized void unregisterMBean(){
+		if (objectName==null) return;
+		try{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}catch(JMException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "TarMetrics[entries=" + getEntries() + ", rawBytes=" + getRawBytes() + ", archiveBytes=" + getArchiveBytes()
+			+ ", walk=" + getWalkMillis() + "ms, read=" + getReadMillis() + "ms, codec=" + getCodecMillis() + "ms, write=" + getWriteMillis() + "ms]";
+	}
+}
@@ -0,0 +1,47 @@
+package org.yipuran.compress;
+
+/**
+ * TarMetrics の JMX 属性.
+ */
+public interface TarMetricsMXBean{
+	/**
+	 * @return 処理を終了したエントリ数
+	 */
+	long getEntries();
+	/**
+	 * @return エントリのデータ（圧縮前）のバイト数
+	 */
+	long getRawBytes();
+	/**
+	 * @return アーカイブファイルのバイト数
+	 */
+	long getArchiveBytes();
+	/**
+	 * @return 圧縮率（アーカイブファイルのバイト数／圧縮前のバイト数）、未処理の場合は 0
+	 */
+	double getRatio();
+	/**
+	 * @return 生成または reset からの、１秒あたりの圧縮前のバイト数
+	 */
+	double getBytesPerSecond();
+	/**
+	 * @return ディレクトリ走査の時間（ミリ秒）
+	 */
+	long getWalkMillis();
+	/**
+	 * @return 入力の読込み時間（ミリ秒）
+	 */
+	long getReadMillis();
+	/**
+	 * @return 圧縮・解凍の時間（ミリ秒）
+	 */
+	long getCodecMillis();
+	/**
+	 * @return 出力の書込み時間（ミリ秒）
+	 */
+	long getWriteMillis();
+	/**
+	 * 累積値のクリア.
+	 */
+	void reset();
+}
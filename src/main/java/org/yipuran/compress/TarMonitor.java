@@ -0,0 +1,243 @@
+package org.yipuran.compress;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.yipuran.compress.TarListener.Phase;
+
+/**
+ * TarListener の呼出し.
+ * <PRE>
+ * 登録されたリスナーが無く、実行スレッドに TarJobs のジョブも無い場合、各メソッドは何もせず、ストリームのラップもしない。
+ * ジョブがある場合は、エントリの開始、ストリームの読み書きごとに取消しの確認と帯域制限を行う。
+ * CODEC の時間は、圧縮・解凍ストリームの呼出し時間から、同じスレッドで内側のアーカイブ入出力にかかった時間を除いた時間。
+ * </PRE>
+ */
+final class TarMonitor{
+	private static final TarListener[] NONE = {};
+	private static volatile TarListener[] listeners = NONE;
+	/** スレッドごとのアーカイブ入出力の累積時間、CODEC の時間から除く */
+	private static final ThreadLocal<long[]> NESTED = ThreadLocal.withInitial(()->new long[1]);
+	/** 実行スレッドのジョブ */
+	private static final ThreadLocal<TarJobControl> JOB = new ThreadLocal<>();
+
+	private TarMonitor(){}
+
+	static synchronized void register(TarListener listener){
+		if (listener==null) throw new IllegalArgumentException("listener is required");
+		TarListener[] a = Arrays.copyOf(listeners, listeners.length + 1);
+		a[a.length - 1] = listener;
+		listeners = a;
+	}
+	static synchronized void unregister(TarListener listener){
+		listeners = Arrays.stream(listeners).filter(l->l != listener).toArray(TarListener[]::new);
+	}
+	static boolean isActive(){
+		return listeners.length > 0 || JOB.get() != null;
+	}
+	static void bind(TarJobControl job){
+		JOB.set(job);
+	}
+	static void unbind(){
+		JOB.remove();
+	}
+
+	static void entryStarted(ArchiveEntry entry){
+		TarJobControl job = JOB.get();
+		if (job != null) job.entryStarted(entry);
+		TarListener[] a = listeners;
+		if (a.length==0 || !(entry instanceof TarArchiveEntry)) return;
+		for(TarListener l : a){
+			l.entryStarted((TarArchiveEntry)entry);
+		}
+	}
+	static void entryFinished(ArchiveEntry entry){
+		TarListener[] a = listeners;
+		if (a.length==0 || !(entry instanceof TarArchiveEntry)) return;
+		for(TarListener l : a){
+			l.entryFinished((TarArchiveEntry)entry);
+		}
+	}
+	static void entryListed(ArchiveEntry entry){
+		entryStarted(entry);
+		entryFinished(entry);
+	}
+	static void rawBytes(long n){
+		TarJobControl job = JOB.get();
+		if (job != null) job.transferred(n);
+		for(TarListener l : listeners){
+			l.rawBytes(n);
+		}
+	}
+	/**
+	 * ストリームを経由しないアーカイブファイル入出力（FileChannel の書込み、transferTo）の通知.
+	 * @param n アーカイブファイルのバイト数
+	 */
+	static void archiveBytes(long n){
+		TarJobControl job = JOB.get();
+		if (job != null) job.transferred(n);
+		for(TarListener l : listeners){
+			l.archiveBytes(n);
+		}
+	}
+	static void elapsed(Phase phase, long nanos){
+		for(TarListener l : listeners){
+			l.elapsed(phase, nanos);
+		}
+	}
+
+	/**
+	 * アーカイブファイル書込みの計測.
+	 * @param out アーカイブファイルの OutputStream
+	 * @return 計測する OutputStream、リスナーが無い場合は out
+	 */
+	static OutputStream archive(OutputStream out){
+		return isActive() ? new MonitoredOutputStream(out, Phase.WRITE, true) : out;
+	}
+	/**
+	 * アーカイブファイル読込みの計測.
+	 * @param in アーカイブファイルの InputStream
+	 * @return 計測する InputStream、リスナーが無い場合は in
+	 */
+	static InputStream archive(InputStream in){
+		return isActive() ? new MonitoredInputStream(in, Phase.READ, true) : in;
+	}
+	/**
+	 * 圧縮の計測.
+	 * @param out 圧縮する OutputStream
+	 * @return 計測する OutputStream、リスナーが無い場合は out
+	 */
+	static OutputStream codec(OutputStream out){
+		return isActive() ? new MonitoredOutputStream(out, Phase.CODEC, false) : out;
+	}
+	/**
+	 * 解凍の計測.
+	 * @param in 解凍する InputStream
+	 * @return 計測する InputStream、リスナーが無い場合は in
+	 */
+	static InputStream codec(InputStream in){
+		return isActive() ? new MonitoredInputStream(in, Phase.CODEC, false) : in;
+	}
+	/**
+	 * 圧縮対象ファイル読込みの計測.
+	 * @param in 対象ファイルの InputStream
+	 * @return 計測する InputStream、リスナーが無い場合は in
+	 */
+	static InputStream source(InputStream in){
+		return isActive() ? new MonitoredInputStream(in, Phase.READ, false) : in;
+	}
+	/**
+	 * 展開ファイル書込みの計測.
+	 * @param out 展開するファイルの OutputStream
+	 * @return 計測する OutputStream、リスナーが無い場合は out
+	 */
+	static OutputStream target(OutputStream out){
+		return isActive() ? new MonitoredOutputStream(out, Phase.WRITE, false) : out;
+	}
+
+	private static void report(TarListener[] a, TarJobControl job, Phase phase, boolean archive, long n, long start, long nested){
+		long[] acc = NESTED.get();
+		long nanos = System.nanoTime() - start;
+		if (phase==Phase.CODEC){
+			nanos -= acc[0] - nested;
+		}else if(archive){
+			acc[0] += nanos;
+		}
+		for(TarListener l : a){
+			if (n > 0 && phase != Phase.CODEC){
+				if (archive) l.archiveBytes(n); else l.rawBytes(n);
+			}
+			l.elapsed(phase, nanos);
+		}
+		if (job==null) return;
+		if (phase==Phase.CODEC){
+			job.check();
+		}else{
+			// 帯域制限で待った時間は、外側の CODEC の時間から除く
+			long wait = System.nanoTime();
+			job.transferred(n);
+			acc[0] += System.nanoTime() - wait;
+		}
+	}
+
+	private static final class MonitoredOutputStream extends FilterOutputStream{
+		private final TarListener[] a = listeners;
+		private final TarJobControl job = JOB.get();
+		private final Phase phase;
+		private final boolean archive;
+
+		MonitoredOutputStream(OutputStream out, Phase phase, boolean archive){
+			super(out);
+			this.phase = phase;
+			this.archive = archive;
+		}
+		@Override
+		public void write(int b) throws IOException{
+			write(new byte[]{ (byte)b }, 0, 1);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			report(a, job, phase, archive, len, start, nested);
+		}
+		@Override
+		public void flush() throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			out.flush();
+			report(a, job, phase, archive, 0, start, nested);
+		}
+		@Override
+		public void close() throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			out.close();
+			report(a, job, phase, archive, 0, start, nested);
+		}
+	}
+
+	private static final class MonitoredInputStream extends FilterInputStream{
+		private final TarListener[] a = listeners;
+		private final TarJobControl job = JOB.get();
+		private final Phase phase;
+		private final boolean archive;
+
+		MonitoredInputStream(InputStream in, Phase phase, boolean archive){
+			super(in);
+			this.phase = phase;
+			this.archive = archive;
+		}
+		@Override
+		public int read() throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			int b = in.read();
+			report(a, job, phase, archive, b < 0 ? 0 : 1, start, nested);
+			return b;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			int n = in.read(b, off, len);
+			report(a, job, phase, archive, Math.max(n, 0), start, nested);
+			return n;
+		}
+		@Override
+		public long skip(long n) throws IOException{
+			long nested = NESTED.get()[0];
+			long start = System.nanoTime();
+			long skipped = in.skip(n);
+			report(a, job, phase, archive, archive ? skipped : 0, start, nested);
+			return skipped;
+		}
+	}
+}
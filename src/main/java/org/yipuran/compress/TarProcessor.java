@@ -6,15 +6,25 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.yipuran.file.FileCollection;
 
 /**
@@ -56,35 +66,149 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 	public default Collection<String> compress(String tarPath){
 		Collection<String> entries = new ArrayList<>();
 		// tar 生成
-		try(FileOutputStream out = new FileOutputStream(tarPath);TarArchiveOutputStream taos = new TarArchiveOutputStream(out)){
-			get().forEach(fc->{
-				String prefix = fc.getFile().getParentFile().getAbsolutePath().replaceAll("\\\\", "/");
-				fc.scan(f->{
-					try{
-						if (f.isDirectory()){
-							TarArchiveEntry entry = new TarArchiveEntry(fc.getFile(), f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-							taos.putArchiveEntry(entry);
-							taos.closeArchiveEntry();
-							entries.add(entry.getName());
-							return;
-						}
-						TarArchiveEntry entry = new TarArchiveEntry(f, f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
-						taos.putArchiveEntry(entry);
-						//taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-						taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-						try(FileInputStream fis = new FileInputStream(f); BufferedInputStream bis = new BufferedInputStream(fis)){
-							int size = 0;
-							byte[] buf = new byte[1024];
-							while((size = bis.read(buf)) > 0){
-								taos.write(buf, 0, size);
-							}
-						}
-						taos.closeArchiveEntry();
-						entries.add(entry.getName());
-					}catch(IOException ex){
-						throw new RuntimeException(ex);
-					}
-				});
+		try(FileOutputStream out = new FileOutputStream(tarPath);TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.archive(out))){
+			TarSupport.write(taos, get(), null, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar 圧縮実行（先読みパイプライン）.
+	 * <PRE>
+	 * FileCollection 毎の走査と、ファイルの stat・読込みを executor で並列に先行して行い、
+	 * tar への書込みは呼出しスレッドで compress と同じ順序で行う。
+	 * ファイル数が多く、stat や open の待ち時間が支配的な場合に有効。
+	 * </PRE>
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @param executor ファイルの先読みを実行する ExecutorService、終了は呼出し側で行う。走査は別の専用スレッドで行う。
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(String tarPath, ExecutorService executor){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream out = new FileOutputStream(tarPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(out), TarSupport.BUFFER_SIZE);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(bos)
+		){
+			PrefetchTarWriter.write(taos, get(), null, entries, null, executor);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar 圧縮実行（重複排除）.
+	 * <PRE>
+	 * 内容が同じファイルは最初の１つだけデータを書込み、以降は hard link エントリ（LF_LINK）にする。
+	 * 同じサイズのファイルが複数ある場合だけ SHA-256 を計算するので、重複が無ければ追加の読込みは無い。
+	 * decompress では hard link を作成し、作成できない場合はコピーする。
+	 * extract（規則）・predicateOpen、TarGzipIndex、MappedTarFile はリンク先のデータを読んで展開・返却する。
+	 * stream の TarStreamEntry は LF_LINK エントリのまま（データは空）なので、呼出し側で getLinkName のエントリを参照すること。
+	 * </PRE>
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> dedupCompress(String tarPath){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream out = new FileOutputStream(tarPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(out), TarSupport.BUFFER_SIZE);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(bos)
+		){
+			TarDeduplicator.write(taos, get(), null, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar 圧縮実行（sparse ファイル対応）.
+	 * <PRE>
+	 * 1MB 以上のファイルはゼロブロック（4KB 単位）を穴として検出し、穴の合計が 64KB 以上なら
+	 * PAX 0.1 形式の GNU sparse エントリとしてデータ領域だけを書込む。（GNU tar で展開できる）
+	 * 穴の検出のため、対象のファイルは２回読む。decompress は sparse エントリの穴を書込まずに復元する。
+	 * </PRE>
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> sparseCompress(String tarPath){
+		Collection<String> entries = new ArrayList<>();
+		try(FileOutputStream out = new FileOutputStream(tarPath);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(out), TarSupport.BUFFER_SIZE);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(bos)
+		){
+			TarSparseWriter.write(taos, get(), null, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar へのエントリ追加.
+	 * <PRE>
+	 * 既存の tar のヘッダーだけを読んで最後のエントリの終端を求め、終端マーカーの位置から対象のファイルを書込む。
+	 * 既存のエントリのデータは読まないので、処理量は追加するデータの量とエントリ数だけになる。
+	 * 書込みに失敗した場合は追加前の内容に戻す。
+	 * </PRE>
+	 * @param tarPath 追加先の tar ファイルパス、存在しない場合は新規作成
+	 * @return 追加した tarエントリ名 Collection
+	 */
+	public default Collection<String> append(String tarPath){
+		Collection<String> entries = new ArrayList<>();
+		try{
+			TarAppender.appendTar(tarPath, taos->TarSupport.write(taos, get(), null, entries));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * tar へのメモリ上のエントリ追加.
+	 * @param tarPath 追加先の tar ファイルパス、存在しない場合は新規作成
+	 * @param sources 追加するエントリ
+	 * @return 追加した tarエントリ名 Collection
+	 */
+	public static Collection<String> appendEntries(String tarPath, Collection<TarEntrySource> sources){
+		Collection<String> entries = new ArrayList<>();
+		try{
+			TarAppender.appendTar(tarPath, taos->TarSupport.write(taos, sources, entries));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
+	/**
+	 * tar 圧縮実行（NIO）.
+	 * <PRE>
+	 * compress と同じエントリ構成の tar を FileChannel で作成する。
+	 * ファイルのデータは FileChannel#transferTo で転送し、ヘッダーと小さいファイルは
+	 * direct ByteBuffer にまとめて書込むので、ヒープ上のコピーと書込み回数が少ない。
+	 * </PRE>
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> nioCompress(String tarPath){
+		return nioCompress(tarPath, null);
+	}
+	/**
+	 * tar 圧縮実行（NIO、対象制限）.
+	 * @param tarPath 作成する tar ファイルパス、 *.tar
+	 * @param p Predicate<File>制限規則の付与、null の場合は制限なし
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> nioCompress(String tarPath, Predicate<File> p){
+		Collection<String> entries = new ArrayList<>();
+		try(TarChannelWriter writer = new TarChannelWriter(tarPath)){
+			TarSupport.walk(get(), p, (f, name)->{
+				try{
+					entries.add(writer.putFile(f, name).getName());
+				}catch(IOException ex){
+					throw new RuntimeException(ex);
+				}
 			});
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
@@ -92,6 +216,51 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 		return entries;
 	}
 
+	/**
+	 * tar 圧縮実行（OutputStream 出力）.
+	 * <PRE>
+	 * ファイルを作成せずに、tar を out に書込む。out は close しない。
+	 * </PRE>
+	 * @param out 出力先 OutputStream
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(OutputStream out){
+		Collection<String> entries = new ArrayList<>();
+		try(TarArchiveOutputStream taos = new TarArchiveOutputStream(CloseShieldOutputStream.wrap(out))){
+			TarSupport.write(taos, get(), null, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * tar 圧縮実行（WritableByteChannel 出力）.
+	 * channel は close しない。
+	 * @param channel 出力先 WritableByteChannel
+	 * @return tarエントリ名 Collection
+	 */
+	public default Collection<String> compress(WritableByteChannel channel){
+		return compress(Channels.newOutputStream(channel));
+	}
+	/**
+	 * メモリ上のエントリから tar 作成.
+	 * <PRE>
+	 * TarEntrySource のデータを tar にして out に書込む。out は close しない。
+	 * </PRE>
+	 * @param out 出力先 OutputStream
+	 * @param sources 書込むエントリ
+	 * @return tarエントリ名 Collection
+	 */
+	public static Collection<String> write(OutputStream out, Collection<TarEntrySource> sources){
+		Collection<String> entries = new ArrayList<>();
+		try(TarArchiveOutputStream taos = new TarArchiveOutputStream(CloseShieldOutputStream.wrap(out))){
+			TarSupport.write(taos, sources, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+
 	/**
 	 * tar ファイル展開.
 	 * @param tarPath tar ファイルパス、 *.tar
@@ -101,30 +270,87 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 	public static Collection<String> decompress(String tarPath, String dirPath){
 		Collection<String> entries = new ArrayList<>();
 		// tar 展開
-		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(fis)){
-			ArchiveEntry entry = null;
-			while((entry = tais.getNextEntry()) != null){
-				File file = new File(dirPath + "/" + entry.getName());
-				if (entry.isDirectory()){
-					file.mkdirs();
-					entries.add(entry.getName());
-					continue;
-				}
-				if (!file.getParentFile().exists()){ file.getParentFile().mkdirs(); }
-				try(FileOutputStream fos = new FileOutputStream(file); BufferedOutputStream bos = new BufferedOutputStream(fos)){
-					int size = 0;
-					byte[] buf = new byte[1024];
-					while((size = tais.read(buf)) > 0){
-						bos.write(buf, 0, size);
-					}
-				}
-				entries.add(entry.getName());
-			}
+		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(TarMonitor.archive(fis))){
+			TarSupport.extract(tais, dirPath, entries);
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
 		return entries;
 	}
+	/**
+	 * 規則による選択展開.
+	 * <PRE>
+	 * １回の読込みで、各エントリを条件に一致したすべての規則の展開先に書込む。
+	 * すべての規則が対象件数の決まった規則（エントリ名指定、limit 指定）の場合、
+	 * すべての規則が完了した時点で残りを読まずに終了する。
+	 * </PRE>
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @param rules 選択展開の規則
+	 * @return 規則ごとの展開した tarエントリ名、rules と同じ順序
+	 */
+	public static List<List<String>> extract(String tarPath, List<TarExtractRule> rules){
+		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(TarMonitor.archive(fis))){
+			return TarSupport.extract(tais, rules, ()->new TarArchiveInputStream(TarMonitor.archive(new FileInputStream(tarPath))));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * tar ファイル並列展開.
+	 * <PRE>
+	 * ヘッダーを１回走査してディレクトリを先に作成し、threads 数のスレッドで
+	 * エントリのデータを FileChannel の位置指定転送（transferTo）で書込む。
+	 * 戻り値は decompress(tarPath, dirPath) と同じ。
+	 * threads = 1 の場合は呼出しスレッドで、ヒープを経由しない転送で展開する。
+	 * 展開先の外を指すエントリ名・リンク名がある場合は、何も書込まずに RuntimeException を投げる。
+	 * </PRE>
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param threads 展開スレッド数
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(String tarPath, String dirPath, int threads){
+		try(MappedTarFile tar = new MappedTarFile(tarPath)){
+			return tar.extract(dirPath, threads);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * tar 展開（InputStream 入力）.
+	 * in は close しない。
+	 * @param in tar を読む InputStream
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(InputStream in, String dirPath){
+		Collection<String> entries = new ArrayList<>();
+		try{
+			TarSupport.extract(new TarArchiveInputStream(in), dirPath, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		return entries;
+	}
+	/**
+	 * tar 展開（ReadableByteChannel 入力）.
+	 * channel は close しない。
+	 * @param channel tar を読む ReadableByteChannel
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(ReadableByteChannel channel, String dirPath){
+		return decompress(new BufferedInputStream(Channels.newInputStream(channel), TarSupport.BUFFER_SIZE), dirPath);
+	}
+	/**
+	 * tar 展開（ByteBuffer 入力）.
+	 * @param buffer tar のバイト列、position から limit まで。position は変更しない。
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @return 展開された tar エントリ名
+	 */
+	public static Collection<String> decompress(ByteBuffer buffer, String dirPath){
+		return decompress(TarSupport.newInputStream(buffer), dirPath);
+	}
 	/**
 	 * エントリ名コレクション.
 	 * @param tarPath tar ファイルパス、 *.tar
@@ -132,9 +358,10 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 	 */
 	public static Collection<String> viewPath(String tarPath){
 		Collection<String> entries = new ArrayList<>();
-		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(fis)){
+		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(TarMonitor.archive(fis))){
 			ArchiveEntry entry = null;
 			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryListed(entry);
 				entries.add(entry.getName());
 			}
 		}catch(IOException ex){
@@ -149,9 +376,10 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 	 */
 	public static Collection<ArchiveEntry> entries(String tarPath){
 		Collection<ArchiveEntry> entries = new ArrayList<>();
-		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(fis)){
+		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(TarMonitor.archive(fis))){
 			ArchiveEntry entry = null;
 			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryListed(entry);
 				entries.add(entry);
 			}
 		}catch(IOException ex){
@@ -167,14 +395,82 @@ public interface TarProcessor extends Supplier<Collection<FileCollection>>{
 	 */
 	public static Collection<ArchiveEntry> entries(String tarPath, Predicate<ArchiveEntry> p){
 		Collection<ArchiveEntry> entries = new ArrayList<>();
-		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(fis)){
+		try(FileInputStream fis = new FileInputStream(tarPath); TarArchiveInputStream tais = new TarArchiveInputStream(TarMonitor.archive(fis))){
 			ArchiveEntry entry = null;
 			while((entry = tais.getNextEntry()) != null){
-				if (p.equals(entry)) entries.add(entry);
+				TarMonitor.entryListed(entry);
+				if (p.test(entry)) entries.add(entry);
 			}
 		}catch(IOException ex){
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
 		return entries;
 	}
+	/**
+	 * 検証（展開しない）.
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @return TarVerifyResult
+	 */
+	public static TarVerifyResult verify(String tarPath){
+		return verify(tarPath, null, 1);
+	}
+	/**
+	 * 並列検証.
+	 * <PRE>
+	 * ファイルを書込まずに全エントリを読み、エントリごとのチェックサム（CRC32C、Java 8 では CRC32）を計算する。
+	 * ヘッダーを先に走査し、各エントリのデータを threads 数のスレッドで位置指定で読む。並列の単位はエントリ。
+	 * tar ヘッダーのチェックサムを検査し、manifest を指定した場合は、エントリのサイズと、記録された SHA-256 を比較する。
+	 * 破損はエラーとして結果に記録し、アーカイブファイルを開けない場合だけ例外にする。
+	 * </PRE>
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @param threads 読込みスレッド数
+	 * @return TarVerifyResult
+	 */
+	public static TarVerifyResult verify(String tarPath, TarManifest manifest, int threads){
+		return TarVerifier.verifyTar(tarPath, manifest, threads);
+	}
+	/**
+	 * tar エントリの逐次 Stream.
+	 * <PRE>
+	 * エントリを読込み順に１件ずつ返す。全エントリを Collection に保持しないので、
+	 * filter／findFirst 等で途中終了でき、エントリ数によらず一定のメモリで処理できる。
+	 * 各要素の getInputStream で、Stream が次の要素に進むまでエントリのデータを読める。Stream は必ず close すること。
+	 * 例）
+	 *    try(Stream<TarStreamEntry> stream = TarProcessor.stream(tarPath)){
+	 *        stream.forEach(e->e.extract(dirPath));
+	 *    }
+	 * </PRE>
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(String tarPath){
+		try{
+			FileInputStream fis = new FileInputStream(tarPath);
+			return TarSupport.stream(new TarArchiveInputStream(new BufferedInputStream(TarMonitor.archive(fis), TarSupport.BUFFER_SIZE)));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * tar エントリの Stream（InputStream 入力）.
+	 * Stream を close しても in は close しない。
+	 * @param in tar を読む InputStream
+	 * @return Stream<TarStreamEntry>
+	 */
+	public static Stream<TarStreamEntry> stream(InputStream in){
+		return TarSupport.stream(new TarArchiveInputStream(CloseShieldInputStream.wrap(in)));
+	}
+	/**
+	 * ランダムアクセスリーダー生成.
+	 * <PRE>
+	 * ヘッダーを１回だけ走査してエントリ表を作成し、個々のエントリを InputStream／メモリマップで参照する。
+	 * 使用後は close すること。
+	 * </PRE>
+	 * @param tarPath tar ファイルパス、 *.tar
+	 * @return MappedTarFile
+	 */
+	public static MappedTarFile randomAccess(String tarPath){
+		return new MappedTarFile(tarPath);
+	}
 }
@@ -0,0 +1,117 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * 追加（append）した tar の読込み.
+ * <PRE>
+ * TarGzipProcessor#append は既存の tar.gz の後に、追加エントリと終端マーカーの tar を gzip メンバーとして連結する。
+ * 解凍した tar は 終端マーカー で区切られた複数のセグメントになるので、終端マーカーの後にゼロ以外のブロックがあり、
+ * それが tar ヘッダーとして正しい場合は、次のセグメントのエントリを続けて返す。（GNU tar の --ignore-zeros と同じ）
+ * 終端マーカーの後がゼロブロックだけ、またはヘッダーでない場合は、従来どおりそこでアーカイブの終わりとする。
+ * </PRE>
+ */
+final class TarSegmentInputStream extends TarArchiveInputStream{
+	private final InputStream in;
+	private final byte[] block = new byte[TarConstants.DEFAULT_RCDSIZE];
+	private TarArchiveInputStream current;
+	private boolean eof;
+
+	private TarSegmentInputStream(InputStream in){
+		super(in, TarConstants.DEFAULT_RCDSIZE);
+		this.in = in;
+		// ブロックサイズをレコードサイズにして、終端マーカーの後を読み飛ばさない
+		this.current = new TarArchiveInputStream(in, TarConstants.DEFAULT_RCDSIZE);
+	}
+	/**
+	 * TarSegmentInputStream 生成.
+	 * @param in 解凍した tar を読む InputStream
+	 * @return TarArchiveInputStream
+	 */
+	static TarArchiveInputStream of(InputStream in){
+		return new TarSegmentInputStream(new FullReadInputStream(in));
+	}
+
+	@Override
+	public TarArchiveEntry getNextEntry() throws IOException{
+		while(!eof){
+			TarArchiveEntry entry = current.getNextEntry();
+			if (entry != null) return entry;
+			eof = !nextSegment();
+		}
+		return null;
+	}
+	@Deprecated
+	@Override
+	public TarArchiveEntry getNextTarEntry() throws IOException{
+		return getNextEntry();
+	}
+	private boolean nextSegment() throws IOException{
+		while(true){
+			in.mark(block.length);
+			if (IOUtils.read(in, block) < block.length) return false;
+			if (!isZero(block)) break;
+		}
+		in.reset();
+		if (!TarUtils.verifyCheckSum(block)) return false;
+		current = new TarArchiveInputStream(in, TarConstants.DEFAULT_RCDSIZE);
+		return true;
+	}
+	private static boolean isZero(byte[] b){
+		for(byte v : b){
+			if (v != 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public TarArchiveEntry getCurrentEntry(){
+		return current.getCurrentEntry();
+	}
+	@Override
+	public int read(byte[] buf, int offset, int numToRead) throws IOException{
+		return current.read(buf, offset, numToRead);
+	}
+	@Override
+	public long skip(long n) throws IOException{
+		return current.skip(n);
+	}
+	@Override
+	public int available() throws IOException{
+		return current.available();
+	}
+	@Override
+	public boolean canReadEntryData(ArchiveEntry ae){
+		return current.canReadEntryData(ae);
+	}
+
+	/**
+	 * 要求したバイト数を、終わりに達するまで読込む BufferedInputStream.
+	 * TarArchiveInputStream は sparse エントリのデータ区間を読むとき、要求より少ない読込みを区間の終わりと判断するので、
+	 * 解凍ストリームの短い読込みをそのまま渡すと、後の区間のデータがずれる。
+	 */
+	private static final class FullReadInputStream extends BufferedInputStream{
+		FullReadInputStream(InputStream in){
+			super(in, TarSupport.BUFFER_SIZE);
+		}
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException{
+			int total = 0;
+			while(total < len){
+				int n = super.read(b, off + total, len - total);
+				if (n < 0) return total==0 ? -1 : total;
+				total += n;
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.yipuran.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.yipuran.file.FileCollection;
+
+/**
+ * sparse ファイルの tar 書込み・展開.
+ * <PRE>
+ * 書込みは PAX 0.1 形式の GNU sparse で、データ領域のマップを PAX ヘッダー（GNU.sparse.map）に、
+ * エントリのデータにはデータ領域だけを書込む。穴の検出は BLOCK_SIZE 単位のゼロブロック判定で行う。
+ * （PAX 1.0 形式はマップをデータの先頭に置くが、commons-compress の TarFile が次のエントリ位置を誤るため使わない）
+ * 展開はゼロブロックを書込まずに位置指定で書込み、ファイルサイズを設定して穴を作る。
+ * </PRE>
+ */
+final class TarSparseWriter{
+	/** 穴を検出する単位 */
+	static final int BLOCK_SIZE = 4096;
+	/** 穴を検出するファイルサイズの下限 */
+	static final long SPARSE_THRESHOLD = 1024 * 1024;
+	/** sparse で書込む穴の合計サイズの下限 */
+	static final long MIN_HOLE_SIZE = 64 * 1024;
+
+	private TarSparseWriter(){}
+
+	/**
+	 * FileCollection の tar 書込み（sparse）.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, Collection<String> entries){
+		TarSupport.configure(taos);
+		byte[] buf = TarSupport.buffer();
+		try{
+			TarSupport.walk(fileCollections, p, (f, name)->{
+				try{
+					entries.add(put(taos, new TarArchiveEntry(f, name), f, buf));
+				}catch(IOException ex){
+					throw new RuntimeException(ex);
+				}
+			});
+		}finally{
+			TarSupport.release(buf);
+		}
+	}
+	/**
+	 * ファイル１件の tar 書込み（sparse 判定）.
+	 * 穴が MIN_HOLE_SIZE 未満のファイル、ディレクトリは TarSupport#put で書込む。
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param entry ファイルから作成した TarArchiveEntry
+	 * @param f ファイル
+	 * @param buf コピーバッファ、BLOCK_SIZE の倍数
+	 * @return 書込んだ tarエントリ名
+	 * @throws IOException
+	 */
+	static String put(TarArchiveOutputStream taos, TarArchiveEntry entry, File f, byte[] buf) throws IOException{
+		if (entry.isDirectory() || entry.getSize() < SPARSE_THRESHOLD){
+			return TarSupport.put(taos, entry, f, buf, null, null).getName();
+		}
+		try(FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+			long realSize = entry.getSize();
+			List<long[]> regions = scan(in, realSize, buf);
+			long dataSize = regions.stream().mapToLong(r->r[1]).sum();
+			if (realSize - dataSize < MIN_HOLE_SIZE){
+				return TarSupport.put(taos, entry, f, buf, null, null).getName();
+			}
+			if (regions.isEmpty() || regions.get(regions.size() - 1)[0] + regions.get(regions.size() - 1)[1] < realSize){
+				regions.add(new long[]{ realSize, 0 });
+			}
+			String name = entry.getName();
+			int slash = name.lastIndexOf('/');
+			String base = name.substring(slash + 1);
+
+			TarMonitor.entryStarted(entry);
+			byte[] pax = paxRecords(new String[][]{
+				{ "GNU.sparse.major", "0" }, { "GNU.sparse.minor", "1" },
+				{ "GNU.sparse.name", name }, { "GNU.sparse.size", Long.toString(realSize) },
+				{ "GNU.sparse.numblocks", Integer.toString(regions.size()) }, { "GNU.sparse.map", sparseMap(regions) }
+			});
+			TarArchiveEntry paxEntry = new TarArchiveEntry(truncate("./PaxHeaders.X/" + base), TarConstants.LF_PAX_EXTENDED_HEADER_LC);
+			paxEntry.setSize(pax.length);
+			paxEntry.setModTime(entry.getModTime());
+			taos.putArchiveEntry(paxEntry);
+			taos.write(pax);
+			taos.closeArchiveEntry();
+
+			TarArchiveEntry data = new TarArchiveEntry(truncate(name.substring(0, slash + 1) + "GNUSparseFile.0/" + base), TarConstants.LF_NORMAL);
+			data.setMode(entry.getMode());
+			data.setModTime(entry.getModTime());
+			data.setUserId(entry.getLongUserId());
+			data.setGroupId(entry.getLongGroupId());
+			data.setUserName(entry.getUserName());
+			data.setGroupName(entry.getGroupName());
+			data.setSize(dataSize);
+			// sparse の PAX ヘッダーの後に PAX ヘッダーを重ねないよう、8GB を超えても star 形式で書く
+			taos.putArchiveEntry(data);
+			ByteBuffer bb = ByteBuffer.wrap(buf);
+			for(long[] r : regions){
+				long position = r[0];
+				long end = r[0] + r[1];
+				while(position < end){
+					bb.clear();
+					bb.limit((int)Math.min(buf.length, end - position));
+					int n = in.read(bb, position);
+					if (n < 0) throw new IOException("File shrank while archiving : " + f);
+					TarMonitor.rawBytes(n);
+					taos.write(buf, 0, n);
+					position += n;
+				}
+			}
+			TarSupport.closeArchiveEntry(taos, entry);
+			return name;
+		}
+	}
+
+	/**
+	 * sparse エントリの展開.
+	 * @param path 作成するファイル
+	 * @param in 穴をゼロで埋めたエントリのデータ
+	 * @param realSize 展開後のファイルサイズ
+	 * @param buf コピーバッファ、BLOCK_SIZE の倍数
+	 * @throws IOException
+	 */
+	static void extract(Path path, InputStream in, long realSize, byte[] buf) throws IOException{
+		try(RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")){
+			raf.setLength(0);
+			FileChannel out = raf.getChannel();
+			long position = 0;
+			int length = 0;
+			int n = 0;
+			while((n = in.read(buf, length, buf.length - length)) >= 0){
+				TarMonitor.rawBytes(n);
+				length += n;
+				if (length < buf.length) continue;
+				write(out, position, buf, length);
+				position += length;
+				length = 0;
+			}
+			write(out, position, buf, length);
+			raf.setLength(Math.max(realSize, position + length));
+		}
+	}
+	private static void write(FileChannel out, long position, byte[] buf, int length) throws IOException{
+		int start = -1;
+		for(int off=0; off < length; off += BLOCK_SIZE){
+			int len = Math.min(BLOCK_SIZE, length - off);
+			if (isZero(buf, off, len)){
+				if (start >= 0){
+					writeFully(out, position + start, buf, start, off - start);
+					start = -1;
+				}
+			}else if(start < 0){
+				start = off;
+			}
+		}
+		if (start >= 0){
+			writeFully(out, position + start, buf, start, length - start);
+		}
+	}
+	private static void writeFully(FileChannel out, long position, byte[] buf, int off, int len) throws IOException{
+		ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+		while(bb.hasRemaining()){
+			position += out.write(bb, position);
+		}
+	}
+
+	private static List<long[]> scan(FileChannel in, long size, byte[] buf) throws IOException{
+		List<long[]> regions = new ArrayList<>();
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		long position = 0;
+		long start = -1;
+		while(position < size){
+			bb.clear();
+			bb.limit((int)Math.min(buf.length, size - position));
+			int n = in.read(bb, position);
+			if (n <= 0) throw new IOException("File shrank while archiving");
+			for(int off=0; off < n; off += BLOCK_SIZE){
+				int len = Math.min(BLOCK_SIZE, n - off);
+				if (isZero(buf, off, len)){
+					if (start >= 0){
+						regions.add(new long[]{ start, position + off - start });
+						start = -1;
+					}
+				}else if(start < 0){
+					start = position + off;
+				}
+			}
+			position += n;
+		}
+		if (start >= 0){
+			regions.add(new long[]{ start, size - start });
+		}
+		return regions;
+	}
+	private static boolean isZero(byte[] buf, int off, int len){
+		int end = off + len;
+		for(int i=off; i < end; i++){
+			if (buf[i] != 0) return false;
+		}
+		return true;
+	}
+	private static String sparseMap(List<long[]> regions){
+		return regions.stream().map(r->r[0] + "," + r[1]).collect(Collectors.joining(","));
+	}
+	private static byte[] paxRecords(String[][] records){
+		StringBuilder sb = new StringBuilder();
+		for(String[] r : records){
+			String kv = " " + r[0] + "=" + r[1] + "\n";
+			int kvLength = kv.getBytes(StandardCharsets.UTF_8).length;
+			int length = kvLength + Integer.toString(kvLength).length();
+			if (Integer.toString(length).length() + kvLength != length) length++;
+			sb.append(length).append(kv);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	private static String truncate(String name){
+		return name.length() < TarConstants.NAMELEN ? name : name.substring(name.length() - TarConstants.NAMELEN + 1);
+	}
+}
@@ -0,0 +1,112 @@
+package org.yipuran.compress;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * Stream で逐次参照する tar エントリ.
+ * <PRE>
+ * TarProcessor#stream／TarGzipProcessor#stream の要素。
+ * getInputStream はアーカイブ中のこのエントリのデータを読む。
+ * Stream が次の要素に進むと読めなくなるので、forEach 等の処理の中で読み終えること。
+ * 次の要素に進んだ後に読むと、他のエントリのデータを返さずに IOException（extract は IllegalStateException）になる。
+ * collect、sorted 等で要素をためてから読むことはできない。
+ * 例）
+ *    try(Stream<TarStreamEntry> stream = TarGzipProcessor.stream(targzPath)){
+ *        stream.filter(e->e.getName().endsWith(".xml")).findFirst().ifPresent(e->{
+ *            try(InputStream in = e.getInputStream()){
+ *                ...
+ *            }
+ *        });
+ *    }
+ * </PRE>
+ */
+public final class TarStreamEntry{
+	private final TarArchiveEntry entry;
+	private final InputStream in;
+	private final byte[] buf;
+	/** Stream が次の要素に進んだ場合 false */
+	private volatile boolean current = true;
+
+	TarStreamEntry(TarArchiveEntry entry, InputStream tarInputStream, byte[] buf){
+		this.entry = entry;
+		this.buf = buf;
+		this.in = new FilterInputStream(tarInputStream){
+			@Override
+			public int read() throws IOException{
+				check();
+				return super.read();
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException{
+				check();
+				return super.read(b, off, len);
+			}
+			@Override
+			public long skip(long n) throws IOException{
+				check();
+				return super.skip(n);
+			}
+			@Override
+			public int available() throws IOException{
+				check();
+				return super.available();
+			}
+			@Override
+			public void close(){
+			}
+		};
+	}
+	/**
+	 * Stream が次の要素に進んだときに呼ばれる.
+	 */
+	void invalidate(){
+		current = false;
+	}
+	private void check() throws IOException{
+		if (!current) throw new IOException("Stream has advanced past the entry : " + entry.getName());
+	}
+	/**
+	 * @return TarArchiveEntry
+	 */
+	public TarArchiveEntry getEntry(){
+		return entry;
+	}
+	/**
+	 * @return エントリ名
+	 */
+	public String getName(){
+		return entry.getName();
+	}
+	/**
+	 * @return ディレクトリの場合 true
+	 */
+	public boolean isDirectory(){
+		return entry.isDirectory();
+	}
+	/**
+	 * エントリのデータを読む InputStream.
+	 * close してもアーカイブは閉じない。Stream が次の要素に進んだ後の読込みは IOException になる。
+	 * @return InputStream
+	 */
+	public InputStream getInputStream(){
+		return in;
+	}
+	/**
+	 * エントリを展開先ディレクトリに出力.
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @throws IllegalStateException Stream が次の要素に進んだ後の場合
+	 */
+	public void extract(String dirPath){
+		if (!current) throw new IllegalStateException("Stream has advanced past the entry : " + entry.getName());
+		try{
+			// エントリの開始・終了は Stream が通知する
+			TarSupport.writeEntry(entry, in, dirPath, buf);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+}
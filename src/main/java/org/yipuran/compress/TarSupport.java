@@ -0,0 +1,677 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.yipuran.file.FileCollection;
+
+/**
+ * TarProcessor／TarGzipProcessor 共通処理.
+ */
+final class TarSupport{
+	/** 入出力コピーバッファサイズ */
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private TarSupport(){}
+
+	/**
+	 * アーカイブを先頭から開き直す.
+	 */
+	@FunctionalInterface
+	interface Reopener{
+		TarArchiveInputStream open() throws IOException;
+	}
+
+	/**
+	 * TarArchiveOutputStream の書込み形式設定.
+	 * 長いエントリ名は GNU 形式、2097151 を超える uid/gid 等は star/GNU のバイナリ表記で書込む。
+	 * @param taos TarArchiveOutputStream
+	 */
+	static void configure(TarArchiveOutputStream taos){
+		taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+		taos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_STAR);
+	}
+	/**
+	 * エントリのヘッダー書込み.
+	 * <PRE>
+	 * 8GB を超えるエントリだけ PAX ヘッダー（BIGNUMBER_POSIX）でサイズを書込む。
+	 * POSIX 形式は時刻も PAX ヘッダーにするので、すべてのエントリには使わない。
+	 * </PRE>
+	 * @param taos 書込み先 TarArchiveOutputStream、configure 済
+	 * @param entry TarArchiveEntry
+	 * @throws IOException
+	 */
+	static void putArchiveEntry(TarArchiveOutputStream taos, TarArchiveEntry entry) throws IOException{
+		TarMonitor.entryStarted(entry);
+		if (entry.getSize() <= TarConstants.MAXSIZE){
+			taos.putArchiveEntry(entry);
+			return;
+		}
+		taos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+		try{
+			taos.putArchiveEntry(entry);
+		}finally{
+			taos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_STAR);
+		}
+	}
+	/**
+	 * エントリのデータ書込み終了.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param entry putArchiveEntry したエントリ
+	 * @throws IOException
+	 */
+	static void closeArchiveEntry(TarArchiveOutputStream taos, TarArchiveEntry entry) throws IOException{
+		taos.closeArchiveEntry();
+		TarMonitor.entryFinished(entry);
+	}
+	/**
+	 * FileCollection の tar 書込み.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, Collection<String> entries){
+		write(taos, fileCollections, p, entries, null);
+	}
+	/**
+	 * FileCollection の tar 書込み（エントリ通知）.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 * @param onEntry エントリのヘッダー書込み直後に呼ばれる、null 可
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<FileCollection> fileCollections, Predicate<File> p, Collection<String> entries,
+			Consumer<TarArchiveEntry> onEntry){
+		configure(taos);
+		byte[] buf = buffer();
+		try{
+			walk(fileCollections, p, (f, name)->{
+				try{
+					entries.add(put(taos, new TarArchiveEntry(f, name), f, buf, null, onEntry).getName());
+				}catch(IOException ex){
+					throw new RuntimeException(ex);
+				}
+			});
+		}finally{
+			release(buf);
+		}
+	}
+	/**
+	 * メモリ上のエントリの tar 書込み.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param sources 書込むエントリ
+	 * @param entries 書込んだ tarエントリ名を格納する Collection
+	 * @throws IOException
+	 */
+	static void write(TarArchiveOutputStream taos, Collection<TarEntrySource> sources, Collection<String> entries) throws IOException{
+		configure(taos);
+		byte[] buf = buffer();
+		try{
+			for(TarEntrySource source : sources){
+				TarArchiveEntry entry = source.toArchiveEntry();
+				putArchiveEntry(taos, entry);
+				if (!source.isDirectory()){
+					try(InputStream in = TarMonitor.source(source.open())){
+						int size = 0;
+						while((size = in.read(buf)) > 0){
+							taos.write(buf, 0, size);
+						}
+					}
+				}
+				closeArchiveEntry(taos, entry);
+				entries.add(entry.getName());
+			}
+		}finally{
+			release(buf);
+		}
+	}
+	/**
+	 * ファイル、ディレクトリ１件の tar 書込み.
+	 * @param taos 書込み先 TarArchiveOutputStream
+	 * @param entry ファイルから作成した TarArchiveEntry
+	 * @param f ファイル
+	 * @param buf コピーバッファ
+	 * @param digest 書込むデータで更新する MessageDigest、null 可
+	 * @param onEntry エントリのヘッダー書込み直後に呼ばれる、null 可
+	 * @return 書込んだ TarArchiveEntry
+	 * @throws IOException
+	 */
+	static TarArchiveEntry put(TarArchiveOutputStream taos, TarArchiveEntry entry, File f, byte[] buf, MessageDigest digest,
+			Consumer<TarArchiveEntry> onEntry) throws IOException{
+		putArchiveEntry(taos, entry);
+		if (onEntry != null) onEntry.accept(entry);
+		if (!entry.isDirectory()){
+			try(InputStream in = TarMonitor.source(new FileInputStream(f))){
+				int size = 0;
+				while((size = in.read(buf)) > 0){
+					taos.write(buf, 0, size);
+					if (digest != null) digest.update(buf, 0, size);
+				}
+			}
+		}
+		closeArchiveEntry(taos, entry);
+		return entry;
+	}
+
+	/**
+	 * ファイル内容のダイジェスト.
+	 * @param f ファイル
+	 * @param digest MessageDigest、reset してから使用する。
+	 * @param buf 読込みバッファ
+	 * @return ダイジェスト
+	 * @throws IOException
+	 */
+	static byte[] digest(File f, MessageDigest digest, byte[] buf) throws IOException{
+		digest.reset();
+		try(InputStream in = TarMonitor.source(new FileInputStream(f))){
+			int size = 0;
+			while((size = in.read(buf)) > 0){
+				digest.update(buf, 0, size);
+			}
+		}
+		return digest.digest();
+	}
+	/**
+	 * @return SHA-256 の MessageDigest
+	 */
+	static MessageDigest sha256(){
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * FileCollection の走査.
+	 * <PRE>
+	 * 各 FileCollection を scan して、ファイルと tarエントリ名（FileCollection の親ディレクトリからの相対パス）を渡す。
+	 * </PRE>
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param c ファイルと tarエントリ名の BiConsumer
+	 */
+	static void walk(Collection<FileCollection> fileCollections, Predicate<File> p, BiConsumer<File, String> c){
+		if (TarMonitor.isActive()){
+			// 走査の時間から、エントリの書込み時間を除く
+			long[] callback = new long[1];
+			long start = System.nanoTime();
+			scan(fileCollections, p, (f, name)->{
+				long t = System.nanoTime();
+				try{
+					c.accept(f, name);
+				}finally{
+					callback[0] += System.nanoTime() - t;
+				}
+			});
+			TarMonitor.elapsed(TarListener.Phase.WALK, System.nanoTime() - start - callback[0]);
+			return;
+		}
+		scan(fileCollections, p, c);
+	}
+	private static void scan(Collection<FileCollection> fileCollections, Predicate<File> p, BiConsumer<File, String> c){
+		fileCollections.forEach(fc->{
+			String prefix = fc.getFile().getParentFile().getAbsolutePath().replaceAll("\\\\", "/");
+			Consumer<File> fileConsumer = f->c.accept(f, f.getAbsolutePath().replaceAll("\\\\", "/").replaceFirst(prefix, ""));
+			if (p==null){
+				fc.scan(fileConsumer);
+			}else{
+				fc.scan(p, fileConsumer);
+			}
+		});
+	}
+
+	/**
+	 * tar 展開.
+	 * @param tais 読込み元 TarArchiveInputStream
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param entries 展開した tarエントリ名を格納する Collection
+	 * @throws IOException
+	 */
+	static void extract(TarArchiveInputStream tais, String dirPath, Collection<String> entries) throws IOException{
+		byte[] buf = buffer();
+		try{
+			ArchiveEntry entry = null;
+			while((entry = tais.getNextEntry()) != null){
+				extract(entry, tais, dirPath, buf);
+				entries.add(entry.getName());
+			}
+		}finally{
+			release(buf);
+		}
+	}
+	/**
+	 * tar エントリ１件の展開.
+	 * @param entry 展開するエントリ
+	 * @param in エントリのデータを読む InputStream
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param buf コピーバッファ
+	 * @throws IOException
+	 */
+	static void extract(ArchiveEntry entry, InputStream in, String dirPath, byte[] buf) throws IOException{
+		TarMonitor.entryStarted(entry);
+		writeEntry(entry, in, dirPath, buf);
+		TarMonitor.entryFinished(entry);
+	}
+	/**
+	 * tar エントリ１件の書込み（TarMonitor へのエントリの開始・終了の通知なし）.
+	 * @param entry 展開するエントリ
+	 * @param in エントリのデータを読む InputStream
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param buf コピーバッファ
+	 * @throws IOException
+	 */
+	static void writeEntry(ArchiveEntry entry, InputStream in, String dirPath, byte[] buf) throws IOException{
+		File file = new File(dirPath + "/" + entry.getName());
+		if (entry.isDirectory()){
+			file.mkdirs();
+		}else{
+			if (!file.getParentFile().exists()){ file.getParentFile().mkdirs(); }
+			if (entry instanceof TarArchiveEntry && ((TarArchiveEntry)entry).isLink()){
+				link(file.toPath(), resolve(dirPath, ((TarArchiveEntry)entry).getLinkName()));
+			}else if(entry instanceof TarArchiveEntry && ((TarArchiveEntry)entry).isSparse()){
+				TarSparseWriter.extract(file.toPath(), in, ((TarArchiveEntry)entry).getRealSize(), buf);
+			}else{
+				// buf 単位で書込むので、ファイルごとの BufferedOutputStream は使わない
+				try(OutputStream out = TarMonitor.target(new FileOutputStream(file))){
+					int size = 0;
+					while((size = in.read(buf)) > 0){
+						out.write(buf, 0, size);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 選択展開規則による tar 展開.
+	 * <PRE>
+	 * エントリごとに、条件に一致したすべての規則の展開先に書込む。
+	 * すべての規則が対象件数の決まった規則の場合、すべての規則が完了した時点で読込みを終了する。
+	 * hard link エントリは、リンク先のデータを同じ規則で展開していればその展開先への hard link、
+	 * 別の規則で展開していればそのコピーにする。リンク先を展開していない場合は、
+	 * reopen で開き直したアーカイブからリンク先のデータを読んで書込む。
+	 * </PRE>
+	 * @param tais TarArchiveInputStream
+	 * @param rules 選択展開の規則
+	 * @param reopen リンク先を読むためにアーカイブを開き直す、null の場合、展開していないリンク先は IOException
+	 * @return 規則ごとの展開した tarエントリ名、rules と同じ順序
+	 * @throws IOException
+	 */
+	static List<List<String>> extract(TarArchiveInputStream tais, List<TarExtractRule> rules, Reopener reopen) throws IOException{
+		int n = rules.size();
+		List<List<String>> result = new ArrayList<>(n);
+		List<Set<String>> found = new ArrayList<>(n);
+		boolean[] done = new boolean[n];
+		int remaining = n;
+		for(int i=0; i < n; i++){
+			result.add(new ArrayList<>());
+			found.add(new HashSet<>());
+			if (rules.get(i).isSatisfied(0, found.get(i))){
+				done[i] = true;
+				remaining--;
+			}
+		}
+		boolean finite = rules.stream().allMatch(TarExtractRule::isFinite);
+		// データを書込んだエントリ名 → 最初の展開先、展開先パス、hard link エントリ名 → リンク先名、未展開のリンク先名 → リンクの展開先
+		Map<String, Path> written = new HashMap<>();
+		Set<Path> writtenPaths = new HashSet<>();
+		Map<String, String> links = new HashMap<>();
+		Map<String, List<Path>> pending = new LinkedHashMap<>();
+		byte[] buf = buffer();
+		try{
+			List<Path> targets = new ArrayList<>();
+			TarArchiveEntry entry = null;
+			while(!(finite && remaining==0) && (entry = tais.getNextEntry()) != null){
+				targets.clear();
+				if (entry.isLink()) links.put(entry.getName(), entry.getLinkName());
+				boolean matched = false;
+				for(int i=0; i < n; i++){
+					TarExtractRule rule = rules.get(i);
+					if (done[i] || !rule.test(entry)) continue;
+					String name = rule.map(entry.getName());
+					if (name==null) continue;
+					if (!matched){
+						TarMonitor.entryStarted(entry);
+						matched = true;
+					}
+					Path path = resolve(rule.getDirPath(), name);
+					if (entry.isDirectory()){
+						Files.createDirectories(path);
+					}else{
+						Files.createDirectories(path.getParent());
+						if (entry.isLink()){
+							String target = linkTarget(entry.getLinkName(), links);
+							String mapped = rule.map(target);
+							Path own = mapped==null ? null : resolve(rule.getDirPath(), mapped);
+							if (own != null && writtenPaths.contains(own)){
+								link(path, own);
+							}else if(written.containsKey(target)){
+								Files.copy(written.get(target), path, StandardCopyOption.REPLACE_EXISTING);
+							}else{
+								pending.computeIfAbsent(target, k->new ArrayList<>()).add(path);
+							}
+						}else{
+							targets.add(path);
+						}
+					}
+					result.get(i).add(entry.getName());
+					if (rule.isNamed()) found.get(i).add(entry.getName());
+					if (rule.isSatisfied(result.get(i).size(), found.get(i))){
+						done[i] = true;
+						remaining--;
+					}
+				}
+				if (targets.size()==1 && entry.isSparse()){
+					TarSparseWriter.extract(targets.get(0), tais, entry.getRealSize(), buf);
+				}else if(!targets.isEmpty()){
+					copy(tais, targets, buf);
+				}
+				if (!targets.isEmpty()){
+					written.putIfAbsent(entry.getName(), targets.get(0));
+					writtenPaths.addAll(targets);
+				}
+				if (matched) TarMonitor.entryFinished(entry);
+			}
+			if (!pending.isEmpty()) extractLinkTargets(pending, reopen, buf);
+		}finally{
+			release(buf);
+		}
+		return result;
+	}
+	/**
+	 * hard link のリンク先名.
+	 * @param name hard link エントリのリンク名
+	 * @param links hard link エントリ名 → リンク名
+	 * @return hard link ではないリンク先のエントリ名
+	 * @throws IOException リンクが循環している場合
+	 */
+	private static String linkTarget(String name, Map<String, String> links) throws IOException{
+		String target = name;
+		for(int i=0; links.containsKey(target); i++){
+			if (i > links.size()) throw new IOException("hard link loop : " + name);
+			target = links.get(target);
+		}
+		return target;
+	}
+	/**
+	 * 展開していないリンク先のデータ書込み.
+	 * @param pending リンク先エントリ名 → hard link の展開先
+	 * @param reopen アーカイブを開き直す、null の場合は IOException
+	 * @param buf コピーバッファ
+	 * @throws IOException
+	 */
+	private static void extractLinkTargets(Map<String, List<Path>> pending, Reopener reopen, byte[] buf) throws IOException{
+		if (reopen==null) throw new IOException("hard link target is not extracted : " + pending.keySet().iterator().next());
+		try(TarArchiveInputStream tais = reopen.open()){
+			TarArchiveEntry entry = null;
+			while(!pending.isEmpty() && (entry = tais.getNextEntry()) != null){
+				if (entry.isLink() || entry.isDirectory()) continue;
+				List<Path> paths = pending.remove(entry.getName());
+				if (paths==null) continue;
+				if (paths.size()==1 && entry.isSparse()){
+					TarSparseWriter.extract(paths.get(0), tais, entry.getRealSize(), buf);
+				}else{
+					copy(tais, paths, buf);
+				}
+			}
+		}
+		if (!pending.isEmpty()){
+			String name = pending.keySet().iterator().next();
+			throw new NoSuchFileException(name, null, "hard link target not in archive");
+		}
+	}
+	private static void copy(InputStream in, List<Path> targets, byte[] buf) throws IOException{
+		List<OutputStream> outs = new ArrayList<>(targets.size());
+		IOException error = null;
+		try{
+			for(Path path : targets){
+				outs.add(TarMonitor.target(Files.newOutputStream(path)));
+			}
+			int size = 0;
+			while((size = in.read(buf)) > 0){
+				for(OutputStream out : outs){
+					out.write(buf, 0, size);
+				}
+			}
+		}catch(IOException ex){
+			error = ex;
+		}
+		for(OutputStream out : outs){
+			try{
+				out.close();
+			}catch(IOException ex){
+				if (error==null) error = ex; else error.addSuppressed(ex);
+			}
+		}
+		if (error != null) throw error;
+	}
+
+	/**
+	 * hard link エントリの展開.
+	 * hard link を作成できないファイルシステムの場合はリンク先をコピーする。
+	 * @param link 作成するファイル
+	 * @param target リンク先（展開済のファイル）
+	 * @throws IOException
+	 */
+	static void link(Path link, Path target) throws IOException{
+		Files.deleteIfExists(link);
+		try{
+			Files.createLink(link, target);
+		}catch(UnsupportedOperationException | IOException ex){
+			if (!Files.exists(target)) throw new NoSuchFileException(target.toString(), null, "hard link target not extracted");
+			Files.copy(target, link, StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+	/**
+	 * 展開先ディレクトリ内のパス.
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param name tarエントリ名、リンク名
+	 * @return Path
+	 * @throws IOException 展開先ディレクトリの外を指す場合
+	 */
+	static Path resolve(String dirPath, String name) throws IOException{
+		Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+		Path path = dir.resolve(name).normalize();
+		if (!path.startsWith(dir)) throw new IOException("Entry is outside of the target directory : " + name);
+		return path;
+	}
+
+	/**
+	 * ByteBuffer を読む InputStream.
+	 * ByteBuffer の position は変更しない。
+	 * @param buffer 読込み元 ByteBuffer、position から limit まで
+	 * @return InputStream
+	 */
+	static InputStream newInputStream(ByteBuffer buffer){
+		if (buffer.hasArray()){
+			return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		ByteBuffer b = buffer.duplicate();
+		return new InputStream(){
+			@Override
+			public int read(){
+				return b.hasRemaining() ? b.get() & 0xff : -1;
+			}
+			@Override
+			public int read(byte[] bytes, int off, int len){
+				if (len==0) return 0;
+				if (!b.hasRemaining()) return -1;
+				int n = Math.min(len, b.remaining());
+				b.get(bytes, off, n);
+				return n;
+			}
+			@Override
+			public long skip(long n){
+				int k = (int)Math.max(0, Math.min(n, b.remaining()));
+				b.position(b.position() + k);
+				return k;
+			}
+			@Override
+			public int available(){
+				return b.remaining();
+			}
+		};
+	}
+
+	/**
+	 * tar エントリの逐次 Stream 生成.
+	 * <PRE>
+	 * Stream の close で tais を閉じる。
+	 * 次の要素に進むときに前の要素を無効にして、前の要素から次のエントリのデータを読めないようにする。
+	 * TarMonitor へは、要素を渡す前にエントリの開始、要素の処理が戻った後に終了を通知する。
+	 * </PRE>
+	 * @param tais 読込み元 TarArchiveInputStream
+	 * @return Stream<TarStreamEntry>
+	 */
+	static Stream<TarStreamEntry> stream(TarArchiveInputStream tais){
+		byte[] buf = new byte[BUFFER_SIZE];
+		Spliterator<TarStreamEntry> spliterator = new Spliterators.AbstractSpliterator<TarStreamEntry>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL){
+			/** 前の要素、tais が進むと読めなくなる */
+			private TarStreamEntry previous;
+			@Override
+			public boolean tryAdvance(Consumer<? super TarStreamEntry> action){
+				if (previous != null){
+					previous.invalidate();
+					previous = null;
+				}
+				try{
+					TarArchiveEntry entry = tais.getNextEntry();
+					if (entry==null) return false;
+					TarMonitor.entryStarted(entry);
+					previous = new TarStreamEntry(entry, tais, buf);
+					action.accept(previous);
+					TarMonitor.entryFinished(entry);
+					return true;
+				}catch(IOException ex){
+					throw new RuntimeException(ex.getMessage(), ex);
+				}
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(()->{
+			try{
+				tais.close();
+			}catch(IOException ex){
+				throw new RuntimeException(ex.getMessage(), ex);
+			}
+		});
+	}
+
+	/**
+	 * コピーバッファ取得.
+	 * 実行スレッドに TarContext がある場合はプールから取得する。
+	 * @return コピーバッファ、使用後は release で返す。
+	 */
+	static byte[] buffer(){
+		TarContext context = TarContext.current();
+		return context==null ? new byte[BUFFER_SIZE] : context.buffer();
+	}
+	/**
+	 * コピーバッファ返却.
+	 * @param buf buffer で取得したコピーバッファ
+	 */
+	static void release(byte[] buf){
+		TarContext context = TarContext.current();
+		if (context != null) context.release(buf);
+	}
+	/**
+	 * gzip 圧縮ストリーム生成.
+	 * 実行スレッドに TarContext がある場合は、プールの Deflater を使う。
+	 * @param out 出力先 OutputStream
+	 * @return gzip 圧縮ストリーム、close で out も閉じる。
+	 * @throws IOException
+	 */
+	static OutputStream gzip(OutputStream out) throws IOException{
+		TarContext context = TarContext.current();
+		return context==null ? new GzipCompressorOutputStream(out) : new PooledGzipOutputStream(out, context);
+	}
+	/**
+	 * gzip 解凍ストリーム生成.
+	 * 連結された gzip メンバーも続けて解凍する。実行スレッドに TarContext がある場合は、プールの Inflater を使う。
+	 * @param in 読込み元 InputStream
+	 * @return gzip 解凍ストリーム、close で in も閉じる。
+	 * @throws IOException
+	 */
+	static InputStream gunzip(InputStream in) throws IOException{
+		TarContext context = TarContext.current();
+		return context==null ? new GzipCompressorInputStream(in, true) : new CheckpointInflaterInputStream(in, context);
+	}
+
+	/**
+	 * 圧縮 tar の読込みストリーム生成.
+	 * @param path 圧縮 tar ファイルパス
+	 * @param codec TarCodec、null の場合は先頭のマジックバイトで判定する。
+	 * @return TarArchiveInputStream、close でファイルも閉じる。
+	 * @throws IOException
+	 */
+	static TarArchiveInputStream openTar(String path, TarCodec codec) throws IOException{
+		InputStream in = new BufferedInputStream(TarMonitor.archive(new FileInputStream(path)), BUFFER_SIZE);
+		try{
+			in = TarMonitor.codec((codec==null ? TarCodec.detect(in) : codec).decompress(in));
+			return TarSegmentInputStream.of(in);
+		}catch(IOException | RuntimeException ex){
+			in.close();
+			throw ex;
+		}
+	}
+	/**
+	 * tar and gzip 読込みストリーム生成.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param executor gzip 解凍を先読みする Executor、null の場合は先読みしない。
+	 * @return TarArchiveInputStream
+	 * @throws IOException
+	 */
+	static TarArchiveInputStream openTarGz(String targzPath, Executor executor) throws IOException{
+		InputStream in = new BufferedInputStream(TarMonitor.archive(new FileInputStream(targzPath)), BUFFER_SIZE);
+		try{
+			in = TarMonitor.codec(gunzip(in));
+			if (executor != null){
+				in = new ReadAheadInputStream(in, executor);
+			}
+			return TarSegmentInputStream.of(in);
+		}catch(IOException | RuntimeException ex){
+			in.close();
+			throw ex;
+		}
+	}
+}
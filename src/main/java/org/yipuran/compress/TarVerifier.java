@@ -0,0 +1,298 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * アーカイブの検証.
+ * <PRE>
+ * ファイルを書込まずに全エントリのデータを読み、チェックサムを計算する。
+ * tar.gz は先頭から逐次に読み、tar の終端の後も gzip の終わりまで読んで、各 gzip メンバーのトレーラー（CRC32、ISIZE）を検査させる。
+ * tar は TarFile でヘッダーだけを先に走査し、各エントリのデータを位置指定の FileChannel#read で並列に読む。
+ * マニフェストを指定した場合は、SHA-256 が記録されたエントリの SHA-256 も計算して比較する。
+ * 読込みエラーはエラーとして結果に記録し、例外にしない。アーカイブファイルを開けない場合だけ例外にする。
+ * </PRE>
+ */
+final class TarVerifier{
+	/** Java 9 以降の java.util.zip.CRC32C */
+	private static final Constructor<? extends Checksum> CRC32C = crc32c();
+
+	private TarVerifier(){}
+
+	@SuppressWarnings("unchecked")
+	private static Constructor<? extends Checksum> crc32c(){
+		try{
+			return (Constructor<? extends Checksum>)Class.forName("java.util.zip.CRC32C").getConstructor();
+		}catch(ReflectiveOperationException ex){
+			return null;
+		}
+	}
+	static String algorithm(){
+		return CRC32C==null ? "CRC32" : "CRC32C";
+	}
+	static Checksum checksum(){
+		if (CRC32C != null){
+			try{
+				return CRC32C.newInstance();
+			}catch(ReflectiveOperationException ex){
+				throw new IllegalStateException(ex);
+			}
+		}
+		return new CRC32();
+	}
+
+	/**
+	 * tar.gz の検証.
+	 * @param targzPath tar and gzip ファイルパス
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @param executor gzip 解凍を先読みする Executor（呼出しスレッドとは別のスレッドで実行するもの）、null の場合は呼出しスレッドで解凍する。
+	 * @return TarVerifyResult
+	 */
+	static TarVerifyResult verifyTarGz(String targzPath, TarManifest manifest, Executor executor){
+		try(InputStream in = new BufferedInputStream(TarMonitor.archive(new FileInputStream(targzPath)), TarSupport.BUFFER_SIZE)){
+			InputStream gin;
+			try{
+				gin = TarMonitor.codec(TarSupport.gunzip(in));
+			}catch(IOException ex){
+				return failed(message(ex));
+			}
+			if (executor != null){
+				gin = new ReadAheadInputStream(gin, executor);
+			}
+			try(InputStream trailer = gin){
+				return verify(TarSegmentInputStream.of(trailer), trailer, manifest);
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * 逐次の検証.
+	 * @param tais TarArchiveInputStream
+	 * @param trailer tais が読む解凍ストリーム、tar の終端の後を最後まで読む。null の場合は読まない
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @return TarVerifyResult
+	 */
+	static TarVerifyResult verify(TarArchiveInputStream tais, InputStream trailer, TarManifest manifest){
+		List<TarVerifyResult.Entry> entries = new ArrayList<>();
+		List<String> errors = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		Checksum checksum = checksum();
+		MessageDigest digest = manifest==null ? null : TarSupport.sha256();
+		byte[] buf = TarSupport.buffer();
+		try{
+			TarArchiveEntry entry;
+			while((entry = tais.getNextEntry()) != null){
+				TarMonitor.entryStarted(entry);
+				if (!entry.isCheckSumOK()) errors.add("Header checksum mismatch : " + entry.getName());
+				TarVerifyResult.Entry result = read(entry, tais, checksum, hashed(manifest, entry) ? digest : null, buf);
+				entries.add(result);
+				seen.add(entry.getName());
+				compare(entry, result, manifest, errors);
+				TarMonitor.entryFinished(entry);
+			}
+			if (trailer != null) IOUtils.consume(trailer);
+		}catch(IOException ex){
+			errors.add(message(ex));
+		}finally{
+			TarSupport.release(buf);
+		}
+		return new TarVerifyResult(algorithm(), entries, errors, missing(manifest, seen));
+	}
+
+	/**
+	 * tar の並列検証.
+	 * <PRE>
+	 * 並列の単位はエントリで、大きいエントリから順に読み始める。
+	 * sparse エントリは TarFile が FileChannel の position を移動して読むので、１件ずつ読む。
+	 * </PRE>
+	 * @param tarPath tar ファイルパス
+	 * @param manifest 比較するマニフェスト、null の場合は比較しない
+	 * @param threads 読込みスレッド数
+	 * @return TarVerifyResult
+	 */
+	static TarVerifyResult verifyTar(String tarPath, TarManifest manifest, int threads){
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+		try(FileChannel channel = FileChannel.open(Paths.get(tarPath), StandardOpenOption.READ)){
+			List<TarArchiveEntry> list;
+			TarFile tarFile;
+			try{
+				tarFile = new TarFile(channel);
+				list = tarFile.getEntries();
+			}catch(IOException ex){
+				return failed(message(ex));
+			}
+			Object[] results = new Object[list.size()];
+			if (threads==1){
+				for(int i=0; i < list.size(); i++){
+					results[i] = verify(tarFile, channel, list.get(i), manifest);
+				}
+			}else{
+				ExecutorService executor = Executors.newFixedThreadPool(threads);
+				try{
+					List<Integer> order = IntStream.range(0, list.size()).boxed()
+						.sorted((a, b)->Long.compare(list.get(b).getSize(), list.get(a).getSize())).collect(Collectors.toList());
+					List<Future<Object>> futures = new ArrayList<>(Collections.nCopies(list.size(), null));
+					for(int i : order){
+						futures.set(i, executor.submit(()->verify(tarFile, channel, list.get(i), manifest)));
+					}
+					for(int i=0; i < results.length; i++){
+						results[i] = futures.get(i).get();
+					}
+				}catch(ExecutionException ex){
+					Throwable cause = ex.getCause();
+					throw new RuntimeException(cause.getMessage(), cause);
+				}catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(ex.getMessage(), ex);
+				}finally{
+					executor.shutdownNow();
+				}
+			}
+			List<TarVerifyResult.Entry> entries = new ArrayList<>();
+			List<String> errors = new ArrayList<>();
+			Set<String> seen = new HashSet<>();
+			for(int i=0; i < results.length; i++){
+				TarArchiveEntry entry = list.get(i);
+				seen.add(entry.getName());
+				if (!entry.isCheckSumOK()) errors.add("Header checksum mismatch : " + entry.getName());
+				if (results[i] instanceof TarVerifyResult.Entry){
+					entries.add((TarVerifyResult.Entry)results[i]);
+					compare(entry, (TarVerifyResult.Entry)results[i], manifest, errors);
+				}else{
+					errors.add((String)results[i]);
+				}
+			}
+			return new TarVerifyResult(algorithm(), entries, errors, missing(manifest, seen));
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+	/**
+	 * エントリ１件の読込み.
+	 * @return TarVerifyResult.Entry、読込みエラーの場合はエラーメッセージ
+	 */
+	private static Object verify(TarFile tarFile, FileChannel channel, TarArchiveEntry entry, TarManifest manifest){
+		TarMonitor.entryStarted(entry);
+		Checksum checksum = checksum();
+		MessageDigest digest = hashed(manifest, entry) ? TarSupport.sha256() : null;
+		byte[] buf = TarSupport.buffer();
+		TarVerifyResult.Entry result;
+		try{
+			if (entry.isSparse()){
+				synchronized(tarFile){
+					try(InputStream in = tarFile.getInputStream(entry)){
+						result = read(entry, in, checksum, digest, buf);
+					}
+				}
+			}else{
+				ByteBuffer bb = ByteBuffer.wrap(buf);
+				long position = entry.getDataOffset();
+				long remaining = entry.isDirectory() ? 0 : entry.getSize();
+				long size = 0;
+				while(remaining > 0){
+					bb.clear();
+					bb.limit((int)Math.min(buf.length, remaining));
+					int n = channel.read(bb, position);
+					if (n < 0) throw new EOFException("Unexpected end of tar");
+					update(checksum, digest, buf, n);
+					position += n;
+					remaining -= n;
+					size += n;
+				}
+				result = new TarVerifyResult.Entry(entry.getName(), size, checksum.getValue(), digest==null ? null : digest.digest());
+			}
+		}catch(IOException ex){
+			return entry.getName() + " : " + message(ex);
+		}finally{
+			TarSupport.release(buf);
+		}
+		TarMonitor.entryFinished(entry);
+		return result;
+	}
+
+	private static TarVerifyResult.Entry read(TarArchiveEntry entry, InputStream in, Checksum checksum, MessageDigest digest, byte[] buf) throws IOException{
+		checksum.reset();
+		if (digest != null) digest.reset();
+		long size = 0;
+		int n;
+		try{
+			while((n = in.read(buf)) >= 0){
+				update(checksum, digest, buf, n);
+				size += n;
+			}
+		}catch(IOException ex){
+			throw new IOException(entry.getName() + " : " + message(ex), ex);
+		}
+		return new TarVerifyResult.Entry(entry.getName(), size, checksum.getValue(), digest==null ? null : digest.digest());
+	}
+	private static void update(Checksum checksum, MessageDigest digest, byte[] buf, int n){
+		checksum.update(buf, 0, n);
+		if (digest != null) digest.update(buf, 0, n);
+		TarMonitor.rawBytes(n);
+	}
+
+	private static boolean hashed(TarManifest manifest, TarArchiveEntry entry){
+		if (manifest==null) return false;
+		TarManifest.Record record = manifest.getRecord(entry.getName());
+		return record != null && record.hash() != null;
+	}
+	private static void compare(TarArchiveEntry entry, TarVerifyResult.Entry result, TarManifest manifest, List<String> errors){
+		if (manifest==null) return;
+		TarManifest.Record record = manifest.getRecord(entry.getName());
+		if (record==null){
+			errors.add("Not in manifest : " + entry.getName());
+			return;
+		}
+		if (record.isDirectory() != entry.isDirectory()){
+			errors.add("Type mismatch : " + entry.getName());
+			return;
+		}
+		if (entry.isDirectory() || entry.isLink() || entry.isSymbolicLink()) return;
+		if (record.getSize() != result.getSize()){
+			errors.add("Size mismatch : " + entry.getName() + " (archive=" + result.getSize() + ", manifest=" + record.getSize() + ")");
+		}else if(record.hash() != null && !Arrays.equals(record.hash(), result.sha256())){
+			errors.add("SHA-256 mismatch : " + entry.getName());
+		}
+	}
+	private static List<String> missing(TarManifest manifest, Set<String> seen){
+		if (manifest==null) return new ArrayList<>();
+		return manifest.getRecords().stream().map(TarManifest.Record::getName).filter(n->!seen.contains(n)).collect(Collectors.toList());
+	}
+	private static String message(IOException ex){
+		return ex.getMessage()==null ? ex.getClass().getSimpleName() : ex.getMessage();
+	}
+	private static TarVerifyResult failed(String message){
+		return new TarVerifyResult(algorithm(), new ArrayList<>(), new ArrayList<>(Arrays.asList(message)), new ArrayList<>());
+	}
+}
@@ -0,0 +1,111 @@
+package org.yipuran.compress;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * アーカイブ検証の結果.
+ * <PRE>
+ * TarProcessor#verify／TarGzipProcessor#verify が、展開せずに全エントリを読んだ結果。
+ * エントリごとのチェックサム（CRC32C、Java 8 では CRC32）、マニフェストと比較した場合は SHA-256 と、
+ * 検出したエラー（ヘッダーのチェックサム、gzip トレーラーの CRC・サイズ、読込みエラー、マニフェストとの不一致）を保持する。
+ * 例）
+ *    TarVerifyResult result = TarGzipProcessor.verify(targzPath, TarManifest.of(targzPath));
+ *    if (!result.isValid()) result.getErrors().forEach(logger::error);
+ * </PRE>
+ */
+public final class TarVerifyResult{
+	private final String algorithm;
+	private final List<Entry> entries;
+	private final List<String> errors;
+	private final List<String> missing;
+
+	TarVerifyResult(String algorithm, List<Entry> entries, List<String> errors, List<String> missing){
+		this.algorithm = algorithm;
+		this.entries = Collections.unmodifiableList(entries);
+		this.errors = Collections.unmodifiableList(errors);
+		this.missing = Collections.unmodifiableList(missing);
+	}
+
+	/**
+	 * @return エラーが無い場合 true
+	 */
+	public boolean isValid(){
+		return errors.isEmpty();
+	}
+	/**
+	 * @return Entry#getChecksum のアルゴリズム、CRC32C または CRC32
+	 */
+	public String getChecksumAlgorithm(){
+		return algorithm;
+	}
+	/**
+	 * @return 読込んだエントリの結果、アーカイブ内の順序
+	 */
+	public List<Entry> getEntries(){
+		return entries;
+	}
+	/**
+	 * @return 検出したエラーのメッセージ
+	 */
+	public List<String> getErrors(){
+		return errors;
+	}
+	/**
+	 * マニフェストにあって、アーカイブに無いエントリ名.
+	 * 差分アーカイブでは、変更されていないファイルはここに入る。
+	 * @return エントリ名、マニフェストと比較しない場合は空
+	 */
+	public List<String> getMissing(){
+		return missing;
+	}
+
+	@Override
+	public String toString(){
+		return "TarVerifyResult[valid=" + isValid() + ", entries=" + entries.size() + ", errors=" + errors.size() + ", missing=" + missing.size() + "]";
+	}
+
+	/**
+	 * エントリ１件の結果.
+	 */
+	public static final class Entry{
+		private final String name;
+		private final long size;
+		private final long checksum;
+		private final byte[] sha256;
+
+		Entry(String name, long size, long checksum, byte[] sha256){
+			this.name = name;
+			this.size = size;
+			this.checksum = checksum;
+			this.sha256 = sha256;
+		}
+		/**
+		 * @return エントリ名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return 読込んだデータのバイト数、sparse エントリは穴を含むサイズ
+		 */
+		public long getSize(){
+			return size;
+		}
+		/**
+		 * @return データのチェックサム
+		 */
+		public long getChecksum(){
+			return checksum;
+		}
+		/**
+		 * @return データの SHA-256、計算していない場合は null
+		 */
+		public byte[] getSha256(){
+			return sha256==null ? null : sha256.clone();
+		}
+		byte[] sha256(){
+			return sha256;
+		}
+	}
+}
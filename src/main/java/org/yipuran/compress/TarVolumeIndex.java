@@ -0,0 +1,393 @@
+package org.yipuran.compress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * 分割 tar and gzip（ボリューム）のインデックス.
+ * <PRE>
+ * TarGzipProcessor#volumeCompress が作成する、サイズ上限付きの独立した tar.gz（ボリューム）の一覧と、
+ * エントリごとにどのボリュームのどの tar エントリに入っているか（分割したファイルは各部分のオフセットと長さ）を保持する。
+ * ボリュームのファイル名は targzPath の .tar.gz を除いた名前 + ".000.tar.gz" のように連番にする。
+ * 各ボリュームは単独で展開できる tar.gz で、分割したファイルの部分は "@split/0/" + エントリ名 のような名前のエントリになる。
+ * "@split/" は部分のために予約した名前で、volumeCompress は この名前で始まるファイルをエラーにする。
+ *
+ * （作成）
+ * TarGzipProcessor#volumeCompress で圧縮時に サイドカーファイル（*.tar.gz.volumes）を作成する。
+ * （読込み）
+ * 単一エントリの読込み・展開は、エントリを含むボリュームだけを開く。
+ * 全体の展開は TarGzipProcessor#decompressVolumes で、ボリューム単位に並列に行う。
+ * 例）
+ *    TarVolumeIndex index = TarVolumeIndex.read(targzPath + TarVolumeIndex.SUFFIX);
+ *    try(InputStream in = index.open(targzPath, "data/a/b.txt")){
+ *        ...
+ *    }
+ * </PRE>
+ */
+public final class TarVolumeIndex{
+	/** サイドカーファイル拡張子 */
+	public static final String SUFFIX = ".volumes";
+
+	private static final int MAGIC = 0x54475653;
+	private static final int VERSION = 1;
+
+	private final long maxVolumeSize;
+	private final List<Volume> volumes;
+	private final List<Entry> entries;
+
+	TarVolumeIndex(long maxVolumeSize, List<Volume> volumes, List<Entry> entries){
+		this.maxVolumeSize = maxVolumeSize;
+		this.volumes = Collections.unmodifiableList(volumes);
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * ボリュームのファイルパス.
+	 * @param targzPath tar and gzip ファイルパス、 *.tar.gz
+	 * @param volume ボリューム番号、0 から
+	 * @return targzPath の .tar.gz を除いた名前 + ".000.tar.gz"
+	 */
+	public static String volumePath(String targzPath, int volume){
+		String base = targzPath.endsWith(".tar.gz") ? targzPath.substring(0, targzPath.length() - ".tar.gz".length()) : targzPath;
+		return base + String.format(".%03d.tar.gz", volume);
+	}
+
+	/**
+	 * サイドカーファイル読込み.
+	 * @param indexPath インデックスファイルパス
+	 * @return TarVolumeIndex
+	 */
+	public static TarVolumeIndex read(String indexPath){
+		try(FileInputStream fis = new FileInputStream(indexPath);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fis, TarSupport.BUFFER_SIZE)))
+		){
+			if (in.readInt() != MAGIC) throw new IOException("Not a tar.gz volume index : " + indexPath);
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported index version : " + version);
+			long maxVolumeSize = in.readLong();
+			int n = in.readInt();
+			List<Volume> volumes = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				volumes.add(new Volume(in.readUTF(), in.readLong()));
+			}
+			n = in.readInt();
+			List<Entry> entries = new ArrayList<>(n);
+			for(int i=0; i < n; i++){
+				String name = in.readUTF();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				int mode = in.readInt();
+				boolean directory = in.readBoolean();
+				int m = in.readInt();
+				List<Part> parts = new ArrayList<>(m);
+				for(int j=0; j < m; j++){
+					parts.add(new Part(in.readInt(), in.readUTF(), in.readLong(), in.readLong()));
+				}
+				entries.add(new Entry(name, size, lastModified, mode, directory, parts));
+			}
+			return new TarVolumeIndex(maxVolumeSize, volumes, entries);
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * サイドカーファイル書込み.
+	 * @param indexPath インデックスファイルパス
+	 */
+	public void write(String indexPath){
+		try(FileOutputStream fos = new FileOutputStream(indexPath);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fos, TarSupport.BUFFER_SIZE)))
+		){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(maxVolumeSize);
+			out.writeInt(volumes.size());
+			for(Volume v : volumes){
+				out.writeUTF(v.name);
+				out.writeLong(v.length);
+			}
+			out.writeInt(entries.size());
+			for(Entry e : entries){
+				out.writeUTF(e.name);
+				out.writeLong(e.size);
+				out.writeLong(e.lastModified);
+				out.writeInt(e.mode);
+				out.writeBoolean(e.directory);
+				out.writeInt(e.parts.size());
+				for(Part p : e.parts){
+					out.writeInt(p.volume);
+					out.writeUTF(p.name);
+					out.writeLong(p.offset);
+					out.writeLong(p.length);
+				}
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * @return 圧縮時に指定したボリュームサイズの上限
+	 */
+	public long getMaxVolumeSize(){
+		return maxVolumeSize;
+	}
+	/**
+	 * ボリューム一覧.
+	 * @return List<Volume>、ボリューム番号の順
+	 */
+	public List<Volume> getVolumes(){
+		return volumes;
+	}
+	/**
+	 * エントリ表.
+	 * @return List<Entry>、圧縮時の走査順
+	 */
+	public List<Entry> getEntries(){
+		return entries;
+	}
+	/**
+	 * エントリ検索.
+	 * @param name エントリ名
+	 * @return Entry、存在しない場合は null
+	 */
+	public Entry getEntry(String name){
+		return entries.stream().filter(e->e.name.equals(name)).findFirst().orElse(null);
+	}
+	/**
+	 * エントリ名コレクション（解凍しない）.
+	 * @return Collection<String>
+	 */
+	public Collection<String> viewPath(){
+		return entries.stream().map(e->e.name).collect(Collectors.toList());
+	}
+	/**
+	 * Predicate→ArchiveEntryコレクション（解凍しない）.
+	 * @param p Predicate<ArchiveEntry> ファイルのArchiveEntry の Predicate
+	 * @return Collection<ArchiveEntry>
+	 */
+	public Collection<ArchiveEntry> entries(Predicate<ArchiveEntry> p){
+		return entries.stream().map(Entry::toArchiveEntry).filter(p).collect(Collectors.toList());
+	}
+
+	/**
+	 * エントリ読込み.
+	 * <PRE>
+	 * エントリを含むボリュームだけを開き、分割したファイルは各部分を順に読む InputStream を返す。
+	 * ボリュームは先頭から解凍してエントリまで読み進めるので、読込み量はボリュームサイズの上限程度になる。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param name エントリ名
+	 * @return InputStream、close で開いているボリュームを閉じる。
+	 */
+	public InputStream open(String targzPath, String name){
+		Entry entry = getEntry(name);
+		if (entry==null) throw new IllegalArgumentException("No such entry : " + name);
+		return open(targzPath, entry);
+	}
+	/**
+	 * エントリ読込み.
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param entry エントリ
+	 * @return InputStream、close で開いているボリュームを閉じる。
+	 */
+	public InputStream open(String targzPath, Entry entry){
+		for(Part part : entry.parts){
+			File file = volumeFile(targzPath, part.volume);
+			if (file.length() != volumes.get(part.volume).length)
+				throw new IllegalStateException("Index does not match volume : " + file);
+		}
+		return TarVolumes.open(this, targzPath, entry);
+	}
+
+	/**
+	 * Predicateファイル展開.
+	 * <PRE>
+	 * Predicate に一致したエントリだけを、エントリを含むボリュームから展開先パスに出力する。
+	 * TarGzipProcessor#predicateOpen と同じく、出力ファイル名はエントリ名の最後の要素になる。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param dirPath 展開先パス
+	 * @param p Predicate<ArchiveEntry> 展開するファイルのArchiveEntry の Predicate
+	 */
+	public void predicateOpen(String targzPath, String dirPath, Predicate<ArchiveEntry> p){
+		byte[] buf = TarSupport.buffer();
+		try{
+			for(Entry entry : entries){
+				TarArchiveEntry archiveEntry = entry.toArchiveEntry();
+				if (entry.directory || !p.test(archiveEntry)) continue;
+				TarMonitor.entryStarted(archiveEntry);
+				String[] names = entry.name.split("/");
+				try(InputStream in = open(targzPath, entry); OutputStream out = TarMonitor.target(new FileOutputStream(dirPath + "/" + names[names.length-1]))){
+					int size = 0;
+					while((size = in.read(buf)) > 0){
+						out.write(buf, 0, size);
+					}
+				}catch(IOException ex){
+					throw new RuntimeException(ex.getMessage(), ex);
+				}
+				TarMonitor.entryFinished(archiveEntry);
+			}
+		}finally{
+			TarSupport.release(buf);
+		}
+	}
+
+	/**
+	 * ボリュームのファイル.
+	 * インデックスにはファイル名だけを記録するので、targzPath と同じディレクトリから探す。
+	 */
+	File volumeFile(String targzPath, int volume){
+		File parent = new File(targzPath).getAbsoluteFile().getParentFile();
+		return new File(parent, volumes.get(volume).name);
+	}
+
+	/**
+	 * ボリューム.
+	 */
+	public static final class Volume{
+		private final String name;
+		private final long length;
+
+		Volume(String name, long length){
+			this.name = name;
+			this.length = length;
+		}
+		/**
+		 * @return ボリュームのファイル名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return ボリュームのファイルサイズ
+		 */
+		public long getLength(){
+			return length;
+		}
+	}
+
+	/**
+	 * ボリューム内の tar エントリ（エントリの全体または部分）.
+	 */
+	public static final class Part{
+		private final int volume;
+		private final String name;
+		private final long offset;
+		private final long length;
+
+		Part(int volume, String name, long offset, long length){
+			this.volume = volume;
+			this.name = name;
+			this.offset = offset;
+			this.length = length;
+		}
+		/**
+		 * @return ボリューム番号
+		 */
+		public int getVolume(){
+			return volume;
+		}
+		/**
+		 * @return ボリューム内の tar エントリ名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return ファイル中の開始オフセット
+		 */
+		public long getOffset(){
+			return offset;
+		}
+		/**
+		 * @return バイト数
+		 */
+		public long getLength(){
+			return length;
+		}
+	}
+
+	/**
+	 * インデックスのエントリ.
+	 */
+	public static final class Entry{
+		private final String name;
+		private final long size;
+		private final long lastModified;
+		private final int mode;
+		private final boolean directory;
+		private final List<Part> parts;
+
+		Entry(String name, long size, long lastModified, int mode, boolean directory, List<Part> parts){
+			this.name = name;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.mode = mode;
+			this.directory = directory;
+			this.parts = Collections.unmodifiableList(parts);
+		}
+		/**
+		 * @return エントリ名
+		 */
+		public String getName(){
+			return name;
+		}
+		/**
+		 * @return サイズ
+		 */
+		public long getSize(){
+			return size;
+		}
+		/**
+		 * @return ディレクトリの場合 true
+		 */
+		public boolean isDirectory(){
+			return directory;
+		}
+		/**
+		 * 部分が１つでも、エントリ名と異なる tar エントリに格納した場合は分割したエントリとする。
+		 * @return 分割した場合 true
+		 */
+		public boolean isSplit(){
+			return parts.stream().anyMatch(p->!p.name.equals(name));
+		}
+		/**
+		 * @return エントリを格納した tar エントリ、ファイル中の順
+		 */
+		public List<Part> getParts(){
+			return parts;
+		}
+		/**
+		 * ArchiveEntry 生成.
+		 * @return TarArchiveEntry
+		 */
+		public TarArchiveEntry toArchiveEntry(){
+			TarArchiveEntry entry = new TarArchiveEntry(name);
+			entry.setSize(directory ? 0 : size);
+			entry.setModTime(lastModified);
+			entry.setMode(mode);
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package org.yipuran.compress;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.yipuran.file.FileCollection;
+
+/**
+ * 分割 tar and gzip（ボリューム）の作成・展開.
+ * <PRE>
+ * 圧縮前に全ファイルを走査して、tar でのバイト数からエントリをボリュームに割当て、ボリュームごとに並列に圧縮する。
+ * 圧縮後のサイズは圧縮するまで分からないので、割当ては deflate の最悪の膨張（非圧縮ブロックのヘッダー）を見込んだ
+ * tar のバイト数で行う。圧縮の効くデータでは、ボリュームは上限よりかなり小さくなる。
+ * 展開はボリュームごとに並列に行い、分割したファイルは各部分をファイル中のオフセットに書込む。
+ * </PRE>
+ */
+final class TarVolumes{
+	private static final int RECORD = TarConstants.DEFAULT_RCDSIZE;
+	/** tar の終端（空レコード２つ） */
+	private static final int EOF = 2 * RECORD;
+	/** 分割したファイルの部分の tar エントリ名の接頭辞、走査したエントリには使えない */
+	static final String PART_PREFIX = "@split/";
+
+	private TarVolumes(){}
+
+	/**
+	 * ボリュームに書込む tar エントリ.
+	 * 分割しない場合は name がエントリ名で、ファイル全体を書込む。
+	 */
+	private static final class Piece{
+		private final TarArchiveEntry entry;
+		private final File file;
+		private final String name;
+		private final long offset;
+		private final long length;
+
+		Piece(TarArchiveEntry entry, File file, String name, long offset, long length){
+			this.entry = entry;
+			this.file = file;
+			this.name = name;
+			this.offset = offset;
+			this.length = length;
+		}
+		boolean isWhole(){
+			return name.equals(entry.getName());
+		}
+	}
+
+	/**
+	 * ボリュームへの割当て.
+	 */
+	private static final class Planner{
+		private final long capacity;
+		private final boolean split;
+		private final List<List<Piece>> volumes = new ArrayList<>();
+		private List<Piece> current;
+		private long used;
+
+		Planner(long capacity, boolean split){
+			this.capacity = capacity;
+			this.split = split;
+			next();
+		}
+		private void next(){
+			current = new ArrayList<>();
+			volumes.add(current);
+			used = 0;
+		}
+		private boolean fits(long bytes){
+			return used + bytes + EOF <= capacity;
+		}
+		/**
+		 * 現在のボリュームに書込める部分のデータのバイト数.
+		 * 部分の長さは割当てるまで決まらないので、ヘッダーは残りのバイト数で見込む。
+		 */
+		private long room(String name, long remaining){
+			return Math.max(0, (capacity - EOF - used - header(name, remaining)) / RECORD * RECORD);
+		}
+		private TarVolumeIndex.Part add(TarArchiveEntry entry, File file, String name, long offset, long length){
+			current.add(new Piece(entry, file, name, offset, length));
+			used += header(name, length) + pad(length);
+			return new TarVolumeIndex.Part(volumes.size() - 1, name, offset, length);
+		}
+		/**
+		 * エントリの割当て.
+		 * @return エントリを格納する tar エントリ
+		 */
+		List<TarVolumeIndex.Part> add(TarArchiveEntry entry, File file){
+			String name = entry.getName();
+			long size = entry.isDirectory() ? 0 : entry.getSize();
+			long bytes = header(name, size) + pad(size);
+			List<TarVolumeIndex.Part> parts = new ArrayList<>();
+			if (fits(bytes)){
+				parts.add(add(entry, file, name, 0, size));
+				return parts;
+			}
+			if (!split || size==0 || room(partName(name, 0), size) < RECORD){
+				if (!current.isEmpty()) next();
+				if (fits(bytes)){
+					parts.add(add(entry, file, name, 0, size));
+					return parts;
+				}
+				if (!split || size==0) throw new IllegalArgumentException("Entry exceeds maxVolumeSize : " + name);
+			}
+			long offset = 0;
+			while(offset < size){
+				String partName = partName(name, parts.size());
+				long length = Math.min(room(partName, size - offset), size - offset);
+				if (length < RECORD && length < size - offset){
+					if (current.isEmpty()) throw new IllegalArgumentException("Entry name too long for maxVolumeSize : " + name);
+					next();
+					continue;
+				}
+				parts.add(add(entry, file, partName, offset, length));
+				offset += length;
+			}
+			return parts;
+		}
+	}
+
+	/**
+	 * tar エントリのヘッダーのバイト数.
+	 * 長いエントリ名の GNU LongLink エントリと、8GB を超えるサイズの PAX ヘッダーを含む。
+	 */
+	private static long header(String name, long size){
+		int length = name.getBytes(Charset.defaultCharset()).length;
+		long bytes = RECORD;
+		if (length >= TarConstants.NAMELEN) bytes += RECORD + pad(length + 1);
+		if (size > TarConstants.MAXSIZE) bytes += 2 * RECORD;
+		return bytes;
+	}
+	private static long pad(long size){
+		return (size + RECORD - 1) / RECORD * RECORD;
+	}
+	/**
+	 * 分割したファイルの部分の tar エントリ名.
+	 * @param name エントリ名
+	 * @param n 部分の番号
+	 * @return PART_PREFIX + n + "/" + name
+	 */
+	static String partName(String name, int n){
+		return PART_PREFIX + n + "/" + name;
+	}
+	/**
+	 * 分割したファイルの部分のための名前か.
+	 * @param name tar エントリ名
+	 * @return PART_PREFIX のディレクトリ、またはその下の名前の場合 true
+	 */
+	static boolean isReserved(String name){
+		return (name + "/").startsWith(PART_PREFIX);
+	}
+	/**
+	 * ボリュームに書込める tar のバイト数.
+	 * deflate は圧縮できないデータを非圧縮ブロックにするので、膨張はブロックのヘッダー分で 0.1% に満たない。
+	 * 0.1% と gzip のヘッダー・トレーラー分を見込む。
+	 * @param maxVolumeSize ボリュームサイズの上限
+	 * @return tar のバイト数、RECORD の倍数
+	 */
+	static long capacity(long maxVolumeSize){
+		long bytes = (maxVolumeSize - 1024) / 1025 * 1024;
+		return bytes / RECORD * RECORD;
+	}
+
+	/**
+	 * ボリューム作成.
+	 * @param targzPath tar and gzip ファイルパス、ボリュームとインデックスのファイル名にする。
+	 * @param fileCollections 圧縮対象
+	 * @param p Predicate<File>制限規則、null の場合は制限なし
+	 * @param maxVolumeSize ボリュームサイズの上限
+	 * @param split true の場合、ボリュームに入らないファイルを分割する。false の場合はエントリ単位で割当てる。
+	 * @param threads 圧縮スレッド数
+	 * @return TarVolumeIndex、サイドカーファイルにも書込む。
+	 * @throws IllegalArgumentException 走査したエントリ名が PART_PREFIX で始まる場合
+	 */
+	static TarVolumeIndex write(String targzPath, Collection<FileCollection> fileCollections, Predicate<File> p, long maxVolumeSize, boolean split,
+			int threads){
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+		long capacity = capacity(maxVolumeSize);
+		if (capacity < 4 * RECORD) throw new IllegalArgumentException("maxVolumeSize too small : " + maxVolumeSize);
+		Planner planner = new Planner(capacity, split);
+		List<TarVolumeIndex.Entry> entries = new ArrayList<>();
+		TarSupport.walk(fileCollections, p, (f, name)->{
+			TarArchiveEntry entry = new TarArchiveEntry(f, name);
+			if (isReserved(entry.getName())) throw new IllegalArgumentException("Entry name is reserved for split parts : " + entry.getName());
+			entries.add(new TarVolumeIndex.Entry(entry.getName(), entry.isDirectory() ? 0 : entry.getSize(), entry.getModTime().getTime(),
+					entry.getMode(), entry.isDirectory(), planner.add(entry, f)));
+		});
+		List<TarVolumeIndex.Volume> volumes = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<Long>> futures = new ArrayList<>();
+			for(int i=0; i < planner.volumes.size(); i++){
+				String path = TarVolumeIndex.volumePath(targzPath, i);
+				List<Piece> pieces = planner.volumes.get(i);
+				futures.add(executor.submit(()->write(path, pieces)));
+			}
+			for(int i=0; i < futures.size(); i++){
+				long length = futures.get(i).get();
+				if (length > maxVolumeSize) throw new IllegalStateException("Volume exceeds maxVolumeSize : " + TarVolumeIndex.volumePath(targzPath, i));
+				volumes.add(new TarVolumeIndex.Volume(new File(TarVolumeIndex.volumePath(targzPath, i)).getName(), length));
+			}
+		}catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			throw new RuntimeException(cause.getMessage(), cause);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex.getMessage(), ex);
+		}finally{
+			executor.shutdownNow();
+		}
+		TarVolumeIndex index = new TarVolumeIndex(maxVolumeSize, volumes, entries);
+		index.write(targzPath + TarVolumeIndex.SUFFIX);
+		return index;
+	}
+	/**
+	 * ボリューム１件の書込み.
+	 * @return ボリュームのファイルサイズ
+	 */
+	private static long write(String path, List<Piece> pieces) throws IOException{
+		try(FileOutputStream fos = new FileOutputStream(path);
+			BufferedOutputStream bos = new BufferedOutputStream(TarMonitor.archive(fos), TarSupport.BUFFER_SIZE);
+			GzipCompressorOutputStream gout = new GzipCompressorOutputStream(bos);
+			TarArchiveOutputStream taos = new TarArchiveOutputStream(TarMonitor.codec(gout))
+		){
+			TarSupport.configure(taos);
+			byte[] buf = new byte[TarSupport.BUFFER_SIZE];
+			for(Piece piece : pieces){
+				if (piece.isWhole()){
+					TarSupport.put(taos, piece.entry, piece.file, buf, null, null);
+				}else{
+					put(taos, piece, buf);
+				}
+			}
+		}
+		return new File(path).length();
+	}
+	/**
+	 * 分割したファイルの部分の書込み.
+	 */
+	private static void put(TarArchiveOutputStream taos, Piece piece, byte[] buf) throws IOException{
+		TarArchiveEntry entry = new TarArchiveEntry(piece.name);
+		entry.setSize(piece.length);
+		entry.setModTime(piece.entry.getModTime());
+		entry.setMode(piece.entry.getMode());
+		TarSupport.putArchiveEntry(taos, entry);
+		try(FileChannel channel = FileChannel.open(piece.file.toPath(), StandardOpenOption.READ);
+			InputStream in = TarMonitor.source(new BoundedInputStream(Channels.newInputStream(channel.position(piece.offset)), piece.length))
+		){
+			long total = 0;
+			int size = 0;
+			while((size = in.read(buf)) > 0){
+				taos.write(buf, 0, size);
+				total += size;
+			}
+			if (total != piece.length) throw new IOException("File changed while compressing : " + piece.file);
+		}
+		TarSupport.closeArchiveEntry(taos, entry);
+	}
+
+	/**
+	 * ボリュームの並列展開.
+	 * <PRE>
+	 * 分割したファイルは、先に全体のサイズで作成しておき、各ボリュームのスレッドが部分をオフセットに書込む。
+	 * インデックス・ボリュームのエントリ名が展開先の外を指す場合はエラーにする。
+	 * </PRE>
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param dirPath 展開先ディレクトリPATH
+	 * @param threads 展開スレッド数
+	 * @return 展開したエントリ名、インデックスの順
+	 */
+	static Collection<String> extract(String targzPath, String dirPath, int threads){
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive : " + threads);
+		TarVolumeIndex index = TarVolumeIndex.read(targzPath + TarVolumeIndex.SUFFIX);
+		List<Map<String, TarVolumeIndex.Entry>> splits = new ArrayList<>();
+		for(int i=0; i < index.getVolumes().size(); i++){
+			splits.add(new HashMap<>());
+		}
+		try{
+			// インデックスに展開先の外を指すエントリ名があれば、何も書込まずにエラーにする
+			for(TarVolumeIndex.Entry entry : index.getEntries()){
+				TarSupport.resolve(dirPath, entry.getName());
+			}
+			for(TarVolumeIndex.Entry entry : index.getEntries()){
+				if (!entry.isSplit()) continue;
+				entry.getParts().forEach(part->splits.get(part.getVolume()).put(part.getName(), entry));
+				File file = TarSupport.resolve(dirPath, entry.getName()).toFile();
+				if (!file.getParentFile().exists()){ file.getParentFile().mkdirs(); }
+				try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+					raf.setLength(entry.getSize());
+				}
+			}
+		}catch(IOException ex){
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<Void>> futures = new ArrayList<>();
+			for(int i=0; i < index.getVolumes().size(); i++){
+				File volume = index.volumeFile(targzPath, i);
+				Map<String, TarVolumeIndex.Entry> parts = splits.get(i);
+				futures.add(executor.submit(()->{
+					extract(volume, parts, dirPath);
+					return null;
+				}));
+			}
+			for(Future<Void> future : futures){
+				future.get();
+			}
+		}catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			throw new RuntimeException(cause.getMessage(), cause);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex.getMessage(), ex);
+		}finally{
+			executor.shutdownNow();
+		}
+		return index.viewPath();
+	}
+	/**
+	 * ボリューム１件の展開.
+	 * @param volume ボリュームのファイル
+	 * @param parts ボリューム内の tar エントリ名 → 分割したエントリ
+	 * @param dirPath 展開先ディレクトリPATH
+	 */
+	private static void extract(File volume, Map<String, TarVolumeIndex.Entry> parts, String dirPath) throws IOException{
+		byte[] buf = new byte[TarSupport.BUFFER_SIZE];
+		try(TarArchiveInputStream tais = TarSupport.openTarGz(volume.getPath(), null)){
+			TarArchiveEntry entry;
+			while((entry = tais.getNextEntry()) != null){
+				TarVolumeIndex.Entry owner = parts.get(entry.getName());
+				if (owner==null){
+					if (isReserved(entry.getName())) throw new IOException("Split part not in index : " + entry.getName() + " (" + volume + ")");
+					// ボリュームはインデックスと別に書換えられるので、エントリ名も確認する
+					TarSupport.resolve(dirPath, entry.getName());
+					TarSupport.extract(entry, tais, dirPath, buf);
+					continue;
+				}
+				String name = entry.getName();
+				TarVolumeIndex.Part part = owner.getParts().stream().filter(e->e.getName().equals(name)).findFirst().get();
+				TarMonitor.entryStarted(entry);
+				try(FileChannel channel = FileChannel.open(TarSupport.resolve(dirPath, owner.getName()), StandardOpenOption.WRITE);
+					OutputStream out = new BufferedOutputStream(TarMonitor.target(Channels.newOutputStream(channel.position(part.getOffset()))), TarSupport.BUFFER_SIZE)
+				){
+					int size = 0;
+					while((size = tais.read(buf)) > 0){
+						out.write(buf, 0, size);
+					}
+				}
+				TarMonitor.entryFinished(entry);
+			}
+		}
+	}
+
+	/**
+	 * エントリ読込み.
+	 * @param index TarVolumeIndex
+	 * @param targzPath tar and gzip ファイルパス、volumeCompress に指定したパス
+	 * @param entry エントリ
+	 * @return 各部分のボリュームを順に開いて読む InputStream
+	 */
+	static InputStream open(TarVolumeIndex index, String targzPath, TarVolumeIndex.Entry entry){
+		return new PartInputStream(index, targzPath, entry.getParts().iterator());
+	}
+
+	/**
+	 * 分割したファイルの各部分を順に読む InputStream.
+	 * 部分を読み始めるときにボリュームを開き、読み終えたら閉じる。
+	 */
+	private static final class PartInputStream extends InputStream{
+		private final TarVolumeIndex index;
+		private final String targzPath;
+		private final Iterator<TarVolumeIndex.Part> parts;
+		private final byte[] single = new byte[1];
+		private TarArchiveInputStream current;
+
+		PartInputStream(TarVolumeIndex index, String targzPath, Iterator<TarVolumeIndex.Part> parts){
+			this.index = index;
+			this.targzPath = targzPath;
+			this.parts = parts;
+		}
+		@Override
+		public int read() throws IOException{
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			if (len==0) return 0;
+			while(true){
+				if (current==null){
+					if (!parts.hasNext()) return -1;
+					current = open(parts.next());
+				}
+				int n = current.read(b, off, len);
+				if (n >= 0) return n;
+				current.close();
+				current = null;
+			}
+		}
+		private TarArchiveInputStream open(TarVolumeIndex.Part part) throws IOException{
+			File volume = index.volumeFile(targzPath, part.getVolume());
+			TarArchiveInputStream tais = TarSupport.openTarGz(volume.getPath(), null);
+			try{
+				TarArchiveEntry entry;
+				while((entry = tais.getNextEntry()) != null){
+					if (entry.getName().equals(part.getName())) return tais;
+				}
+				throw new IOException("No such entry in volume : " + part.getName() + " (" + volume + ")");
+			}catch(IOException | RuntimeException ex){
+				tais.close();
+				throw ex;
+			}
+		}
+		@Override
+		public void close() throws IOException{
+			if (current != null){
+				current.close();
+				current = null;
+			}
+		}
+	}
+}